@@ -25,6 +25,10 @@
 #include <thrift/transport/THttpServer.h>
 #include <thrift/transport/TServerSocket.h>
 #include <thrift/transport/TBufferTransports.h>
+#ifdef HAVE_THRIFT_ZLIB
+#include <thrift/protocol/TCompactProtocol.h>
+#include <thrift/transport/TZlibTransport.h>
+#endif
 
 #include "MapDRelease.h"
 
@@ -35,6 +39,7 @@
 #include <boost/make_shared.hpp>
 #include <boost/program_options.hpp>
 #include <boost/algorithm/string.hpp>
+#include <memory>
 #include <thread>
 #include <glog/logging.h>
 #include <signal.h>
@@ -220,6 +225,9 @@ void run_warmup_queries(boost::shared_ptr<MapDHandler> handler, std::string base
 
 int main(int argc, char** argv) {
   int http_port = 9090;
+  int framed_port = 0;
+  int compressed_port = 0;
+  int http_binary_port = 0;
   size_t reserved_gpu_mem = 1 << 27;
   std::string base_path;
   std::string device("gpu");
@@ -263,6 +271,15 @@ int main(int argc, char** argv) {
                      po::value<int>(&mapd_parameters.mapd_server_port)->default_value(mapd_parameters.mapd_server_port),
                      "Port number");
   desc.add_options()("http-port", po::value<int>(&http_port)->default_value(http_port), "HTTP port number");
+  desc.add_options()("framed-port",
+                     po::value<int>(&framed_port)->default_value(framed_port),
+                     "Framed binary port number for non-blocking clients (0 to disable)");
+  desc.add_options()("compressed-port",
+                     po::value<int>(&compressed_port)->default_value(compressed_port),
+                     "Zlib compressed compact protocol port number (0 to disable)");
+  desc.add_options()("http-binary-port",
+                     po::value<int>(&http_binary_port)->default_value(http_binary_port),
+                     "HTTP port number for the binary protocol (0 to disable)");
   desc.add_options()("calcite-port",
                      po::value<int>(&mapd_parameters.calcite_port)->default_value(mapd_parameters.calcite_port),
                      "Calcite port number");
@@ -542,6 +559,15 @@ int main(int argc, char** argv) {
   LOG(INFO) << " calcite JVM max memory  " << mapd_parameters.calcite_max_mem;
   LOG(INFO) << " MapD Server Port  " << mapd_parameters.mapd_server_port;
   LOG(INFO) << " MapD Calcite Port  " << mapd_parameters.calcite_port;
+  if (framed_port > 0) {
+    LOG(INFO) << " MapD Framed Port  " << framed_port;
+  }
+  if (compressed_port > 0) {
+    LOG(INFO) << " MapD Compressed Port  " << compressed_port;
+  }
+  if (http_binary_port > 0) {
+    LOG(INFO) << " MapD HTTP Binary Port  " << http_binary_port;
+  }
 
   // rudimetary signal handling to try to guarantee the logging gets flushed to files
   // on shutdown
@@ -585,11 +611,57 @@ int main(int argc, char** argv) {
     std::thread bufThread(start_server, std::ref(bufServer));
     std::thread httpThread(start_server, std::ref(httpServer));
 
+    // framed transport is what thrift's non-blocking clients speak
+    std::unique_ptr<TThreadedServer> framedServer;
+    std::thread framedThread;
+    if (framed_port > 0) {
+      shared_ptr<TServerTransport> framedServerTransport(new TServerSocket(framed_port));
+      shared_ptr<TTransportFactory> framedTransportFactory(new TFramedTransportFactory());
+      framedServer.reset(
+          new TThreadedServer(processor, framedServerTransport, framedTransportFactory, bufProtocolFactory));
+      framedThread = std::thread(start_server, std::ref(*framedServer));
+    }
+
+    // zlib + compact protocol for clients on slow links
+    std::unique_ptr<TThreadedServer> compressedServer;
+    std::thread compressedThread;
+    if (compressed_port > 0) {
+#ifdef HAVE_THRIFT_ZLIB
+      shared_ptr<TServerTransport> compressedServerTransport(new TServerSocket(compressed_port));
+      shared_ptr<TTransportFactory> compressedTransportFactory(new TZlibTransportFactory());
+      shared_ptr<TProtocolFactory> compressedProtocolFactory(new TCompactProtocolFactory());
+      compressedServer.reset(new TThreadedServer(
+          processor, compressedServerTransport, compressedTransportFactory, compressedProtocolFactory));
+      compressedThread = std::thread(start_server, std::ref(*compressedServer));
+#else
+      LOG(ERROR) << "Ignoring compressed-port, thrift was built without zlib support";
+#endif
+    }
+
+    // HTTP for proxies, without the size and parse cost of JSON
+    std::unique_ptr<TThreadedServer> httpBinaryServer;
+    std::thread httpBinaryThread;
+    if (http_binary_port > 0) {
+      shared_ptr<TServerTransport> httpBinaryServerTransport(new TServerSocket(http_binary_port));
+      httpBinaryServer.reset(
+          new TThreadedServer(processor, httpBinaryServerTransport, httpTransportFactory, bufProtocolFactory));
+      httpBinaryThread = std::thread(start_server, std::ref(*httpBinaryServer));
+    }
+
     // run warm up queries if any exists
     run_warmup_queries(handler, base_path, db_query_file);
 
     bufThread.join();
     httpThread.join();
+    if (framedThread.joinable()) {
+      framedThread.join();
+    }
+    if (compressedThread.joinable()) {
+      compressedThread.join();
+    }
+    if (httpBinaryThread.joinable()) {
+      httpBinaryThread.join();
+    }
   } else {  // running ha server
     LOG(FATAL) << "No High Availability module available, please contact MapD support";
   }
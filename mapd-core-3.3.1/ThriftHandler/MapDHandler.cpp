@@ -2556,3 +2556,22 @@ int32_t MapDHandler::get_table_epoch(const TSessionId& session, const int32_t db
   auto& cat = session_info.get_catalog();
   return cat.getTableEpoch(db_id, table_id);
 }
+
+int32_t MapDHandler::get_table_epoch_by_name(const TSessionId& session, const std::string& table_name) {
+  const auto session_info = get_session(session);
+  auto& cat = session_info.get_catalog();
+  const auto td = cat.getMetadataForTable(table_name);
+  if (!td) {
+    TMapDException ex;
+    ex.error_msg = "Table " + table_name + " doesn't exist";
+    LOG(ERROR) << ex.error_msg;
+    throw ex;
+  }
+  if (td->isView) {
+    // views have no storage, asking the file manager would create it
+    TMapDException ex;
+    ex.error_msg = table_name + " is a view and has no epoch";
+    throw ex;
+  }
+  return cat.getTableEpoch(cat.get_currentDB().dbId, td->tableId);
+}
@@ -20,6 +20,7 @@
 #
 #   Thrift_FOUND            - Set to TRUE if Thrift was found.
 #   Thrift_LIBRARIES        - Path to the Thrift libraries.
+#   Thrift_Z_LIBRARY        - Path to the Thrift zlib transport library, if found.
 #   Thrift_EXECUTABLE       - Path to the Thrift executable.
 #   Thrift_LIBRARY_DIRS     - compile time link directories
 #   Thrift_INCLUDE_DIRS     - compile time include directories
@@ -55,6 +56,14 @@ find_library(Thrift_LIBRARY
 
 get_filename_component(Thrift_LIBRARY_DIR ${Thrift_LIBRARY} DIRECTORY)
 
+# zlib transport, optional
+find_library(Thrift_Z_LIBRARY
+  NAMES thriftz
+  HINTS
+  ${Thrift_LIBRARY_DIR}
+  ENV LD_LIBRARY_PATH
+  ENV DYLD_LIBRARY_PATH)
+
 find_program(Thrift_EXECUTABLE
   NAMES thrift
   HINTS
@@ -85,6 +94,9 @@ endif()
 
 # Set standard CMake FindPackage variables if found.
 set(Thrift_LIBRARIES ${Thrift_LIBRARY})
+if(Thrift_Z_LIBRARY)
+  list(APPEND Thrift_LIBRARIES ${Thrift_Z_LIBRARY})
+endif()
 set(Thrift_LIBRARY_DIRS ${Thrift_LIBRARY_DIR})
 set(Thrift_INCLUDE_DIRS ${Thrift_LIBRARY_DIR}/../include)
 
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking query execution against the server's framed port.
+ *
+ * All connections in the JVM share one TAsyncClientManager, so every query in
+ * flight is driven by a single selector thread. That thread only takes the
+ * reply off the wire; building the result set, the statement's bookkeeping
+ * and the listeners run on a shared pool of completion threads, so a slow
+ * listener never holds up other queries. A thrift async client can only
+ * run one call at a time; each connection keeps up to maxClients of them and
+ * queues further queries until one frees up, without blocking the caller.
+ */
+class MapDAsyncClientPool {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDAsyncClientPool.class);
+
+  private static TAsyncClientManager manager = null;
+
+  static synchronized TAsyncClientManager getManager() throws IOException {
+    if (manager == null || !manager.isRunning()) {
+      manager = new TAsyncClientManager();
+    }
+    return manager;
+  }
+
+  private static ExecutorService completions = null;
+
+  static synchronized ExecutorService getCompletions() {
+    if (completions == null) {
+      completions = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "mapd-async-result");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return completions;
+  }
+
+  /**
+   * Told once the server has answered, before the future completes; result
+   * is null when the query failed.
+   */
+  interface Executed {
+
+    void executed(TQueryResult result);
+  }
+
+  private static class Channel {
+
+    final TNonblockingSocket socket;
+    final MapD.AsyncClient client;
+
+    Channel(TNonblockingSocket socket, MapD.AsyncClient client) {
+      this.socket = socket;
+      this.client = client;
+    }
+  }
+
+  private static class PendingQuery {
+
+    final String session;
+    final String sql;
+    final String originalSql;
+    final MapDResultFuture future;
+    final Executed executed;
+
+    PendingQuery(String session, String sql, String originalSql, MapDResultFuture future, Executed executed) {
+      this.session = session;
+      this.sql = sql;
+      this.originalSql = originalSql;
+      this.future = future;
+      this.executed = executed;
+    }
+  }
+
+  private final String machine;
+  private final int port;
+  private final int maxClients;
+  private final ConcurrentLinkedQueue<Channel> idle = new ConcurrentLinkedQueue<Channel>();
+  private final ConcurrentLinkedQueue<PendingQuery> pending = new ConcurrentLinkedQueue<PendingQuery>();
+  private final AtomicInteger open = new AtomicInteger();
+  private volatile boolean closed = false;
+  private final MapDMetrics metrics;
+
+  MapDAsyncClientPool(String machine, int port, int maxClients, MapDMetrics metrics) {
+    this.machine = machine;
+    this.metrics = metrics;
+    this.port = port;
+    this.maxClients = Math.max(1, maxClients);
+  }
+
+  /**
+   * Queues sql for execution, to complete future, and returns immediately;
+   * sql must already have been through the statement's LIMIT and escape
+   * handling. executed may be null.
+   */
+  void sqlExecute(String session, String sql, String originalSql, MapDResultFuture future, Executed executed) {
+    if (closed) {
+      future.fail(new SQLException("Connection has been closed"));
+      return;
+    }
+    pending.offer(new PendingQuery(session, sql, originalSql, future, executed));
+    dispatch();
+  }
+
+  private void dispatch() {
+    while (!pending.isEmpty()) {
+      Channel channel = idle.poll();
+      if (channel == null) {
+        if (open.incrementAndGet() > maxClients) {
+          // a finishing call will pick the query up
+          open.decrementAndGet();
+          return;
+        }
+        try {
+          channel = openChannel();
+        } catch (IOException ex) {
+          open.decrementAndGet();
+          PendingQuery query = pending.poll();
+          if (query != null) {
+            query.future.fail(new SQLException("Connection failed - " + ex.toString()));
+          }
+          continue;
+        }
+      }
+      PendingQuery query = pending.poll();
+      if (query == null) {
+        idle.offer(channel);
+        return;
+      }
+      if (query.future.isDone()) {
+        // cancelled before it was sent
+        idle.offer(channel);
+        continue;
+      }
+      start(channel, query);
+    }
+  }
+
+  private Channel openChannel() throws IOException {
+    TNonblockingSocket socket = new TNonblockingSocket(machine, port);
+    MapD.AsyncClient client = new MapD.AsyncClient(new TBinaryProtocol.Factory(), getManager(), socket);
+    logger.debug("Opened async channel " + open.get() + " of " + maxClients + " to " + machine + ":" + port);
+    return new Channel(socket, client);
+  }
+
+  private void start(final Channel channel, final PendingQuery query) {
+    query.future.markStarted();
+    final long started = System.nanoTime();
+    try {
+      channel.client.sql_execute(query.session, query.sql, true, null, -1, -1,
+              new AsyncMethodCallback<MapD.AsyncClient.sql_execute_call>() {
+        @Override
+        public void onComplete(MapD.AsyncClient.sql_execute_call call) {
+          TQueryResult sqlResult;
+          try {
+            sqlResult = call.getResult();
+          } catch (TMapDException ex) {
+            metrics.recordQueryError();
+            release(channel, false);
+            finish(query, null, new SQLException("Query failed : " + ex.getError_msg()));
+            return;
+          } catch (TException ex) {
+            metrics.recordQueryError();
+            release(channel, true);
+            finish(query, null, new SQLException("Query failed : " + ex.toString()));
+            return;
+          }
+          // the selector thread does the reading, so no network/receive split here
+          metrics.recordQuery(System.nanoTime() - started, sqlResult.execution_time_ms, sqlResult.total_time_ms,
+                  -1, -1, MapDClientPool.rowCount(sqlResult.row_set));
+          release(channel, false);
+          finish(query, sqlResult, null);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+          metrics.recordQueryError();
+          release(channel, true);
+          finish(query, null, new SQLException("Query failed : " + ex.toString()));
+        }
+      });
+    } catch (TException ex) {
+      release(channel, true);
+      finish(query, null, new SQLException("Query failed : " + ex.toString()));
+    } catch (IllegalStateException ex) {
+      release(channel, true);
+      finish(query, null, new SQLException("Query failed : " + ex.toString()));
+    }
+  }
+
+  /**
+   * Completes query's future on a completion thread, off the selector.
+   */
+  private void finish(final PendingQuery query, final TQueryResult sqlResult, final SQLException error) {
+    getCompletions().execute(new Runnable() {
+      @Override
+      public void run() {
+        if (query.executed != null) {
+          try {
+            query.executed.executed(sqlResult);
+          } catch (RuntimeException ex) {
+            logger.warn("Query bookkeeping failed - " + ex.toString());
+          }
+        }
+        if (error != null) {
+          query.future.fail(error);
+          return;
+        }
+        try {
+          MapDResultSet rs = new MapDResultSet(sqlResult, query.originalSql);
+          rs.setMetrics(metrics);
+          query.future.complete(rs);
+        } catch (SQLException ex) {
+          query.future.fail(ex);
+        }
+      }
+    });
+  }
+
+  private void release(Channel channel, boolean broken) {
+    if (broken || closed) {
+      open.decrementAndGet();
+      channel.socket.close();
+    } else {
+      idle.offer(channel);
+    }
+    if (!closed) {
+      dispatch();
+    }
+  }
+
+  void close() {
+    closed = true;
+    Channel channel;
+    while ((channel = idle.poll()) != null) {
+      open.decrementAndGet();
+      channel.socket.close();
+    }
+    PendingQuery query;
+    while ((query = pending.poll()) != null) {
+      query.future.fail(new SQLException("Connection has been closed"));
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TStringRow;
+import com.mapd.thrift.server.TStringValue;
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch inserter that sends rows with load_table in the background.
+ *
+ * Rows go into a buffer that is handed to a sender thread once it holds
+ * flushRows rows, reaches roughly flushBytes bytes or is older than
+ * flushIntervalMs; the caller carries on filling a fresh buffer meanwhile. At
+ * most maxInFlight buffers are being sent at a time, after that add() blocks
+ * until one completes. Send failures are reported by the next call into the
+ * writer.
+ */
+class MapDBatchWriter {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDBatchWriter.class);
+
+  // rough per value overhead of a TStringValue on the wire
+  private static final int VALUE_OVERHEAD = 8;
+
+  private static ExecutorService sender = null;
+  private static ScheduledExecutorService timer = null;
+
+  private static synchronized ExecutorService getSender() {
+    if (sender == null) {
+      sender = Executors.newCachedThreadPool(daemonThreads("mapd-batch-flush"));
+    }
+    return sender;
+  }
+
+  private static synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("mapd-batch-timer"));
+    }
+    return timer;
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /**
+   * Interval flushes for one writer. It only holds the writer weakly, so a
+   * statement that is never closed can still be collected, and the task
+   * cancels itself once it is.
+   */
+  private static class IntervalFlush implements Runnable {
+
+    private final WeakReference<MapDBatchWriter> writer;
+    volatile ScheduledFuture<?> task = null;
+
+    IntervalFlush(MapDBatchWriter writer) {
+      this.writer = new WeakReference<MapDBatchWriter>(writer);
+    }
+
+    @Override
+    public void run() {
+      MapDBatchWriter live = writer.get();
+      if (live == null) {
+        ScheduledFuture<?> scheduled = task;
+        if (scheduled != null) {
+          scheduled.cancel(false);
+        }
+        return;
+      }
+      live.flushIfStale();
+    }
+  }
+
+  private final MapD.Iface client;
+  private final String session;
+  private final String table;
+  private final int flushRows;
+  private final long flushBytes;
+  private final long flushIntervalMs;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+
+  private List<TStringRow> current;
+  private long currentBytes = 0;
+  private long currentStarted = 0;
+  // buffers handed to a sender so far
+  private volatile long flushes = 0;
+  private int unreported = 0;
+  private volatile SQLException failure = null;
+  private ScheduledFuture<?> intervalTask = null;
+
+  private final AtomicLong rowsSent = new AtomicLong();
+  private final AtomicLong batchesSent = new AtomicLong();
+
+  MapDBatchWriter(MapD.Iface client, String session, String table, int flushRows, long flushBytes,
+          long flushIntervalMs, int maxInFlight) {
+    this.client = client;
+    this.session = session;
+    this.table = table;
+    this.flushRows = flushRows;
+    this.flushBytes = flushBytes;
+    this.flushIntervalMs = flushIntervalMs;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    inFlight = new Semaphore(this.maxInFlight);
+    current = newBuffer();
+    if (flushIntervalMs > 0) {
+      long period = Math.max(10, flushIntervalMs / 4);
+      IntervalFlush interval = new IntervalFlush(this);
+      intervalTask = getTimer().scheduleWithFixedDelay(interval, period, period, TimeUnit.MILLISECONDS);
+      interval.task = intervalTask;
+    }
+  }
+
+  private List<TStringRow> newBuffer() {
+    return new ArrayList<TStringRow>(flushRows > 0 ? Math.min(flushRows, 100000) : 5000);
+  }
+
+  void add(TStringRow row) throws SQLException {
+    boolean full;
+    synchronized (this) {
+      checkFailure();
+      if (current.isEmpty()) {
+        currentStarted = System.currentTimeMillis();
+      }
+      current.add(row);
+      currentBytes += estimateSize(row);
+      unreported++;
+      full = (flushRows > 0 && current.size() >= flushRows) || (flushBytes > 0 && currentBytes >= flushBytes);
+    }
+    if (full) {
+      flush(true);
+    }
+  }
+
+  private static long estimateSize(TStringRow row) {
+    long size = 0;
+    if (row.cols == null) {
+      return size;
+    }
+    for (TStringValue value : row.cols) {
+      size += VALUE_OVERHEAD + (value.str_val == null ? 0 : value.str_val.length());
+    }
+    return size;
+  }
+
+  private void flushIfStale() {
+    synchronized (this) {
+      if (current.isEmpty() || System.currentTimeMillis() - currentStarted < flushIntervalMs) {
+        return;
+      }
+    }
+    try {
+      // never block the shared timer thread, the next tick tries again
+      flush(false);
+    } catch (SQLException ex) {
+      logger.debug("Interval flush failed - " + ex.toString());
+    }
+  }
+
+  /**
+   * Hands the current buffer to a sender. With wait set this blocks while
+   * maxInFlight sends are outstanding, otherwise it gives up and returns
+   * false.
+   */
+  private boolean flush(boolean wait) throws SQLException {
+    if (wait) {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("addBatch interrupted waiting for a batch to finish loading");
+      }
+    } else if (!inFlight.tryAcquire()) {
+      return false;
+    }
+    final List<TStringRow> batch;
+    synchronized (this) {
+      if (current.isEmpty()) {
+        inFlight.release();
+        return true;
+      }
+      batch = current;
+      current = newBuffer();
+      currentBytes = 0;
+      flushes++;
+    }
+    getSender().execute(new Runnable() {
+      @Override
+      public void run() {
+        send(batch);
+      }
+    });
+    return true;
+  }
+
+  private void send(List<TStringRow> batch) {
+    try {
+      client.load_table(session, table, batch);
+      rowsSent.addAndGet(batch.size());
+      batchesSent.incrementAndGet();
+    } catch (TMapDException ex) {
+      setFailure(new SQLException("addBatch failed : " + ex.getError_msg() + " (" + batch.size()
+              + " rows not loaded)"));
+    } catch (TException ex) {
+      setFailure(new SQLException("addBatch failed : " + ex.toString() + " (" + batch.size() + " rows not loaded)"));
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  private synchronized void setFailure(SQLException ex) {
+    logger.error(ex.getMessage());
+    if (failure == null) {
+      failure = ex;
+    } else {
+      failure.setNextException(ex);
+    }
+  }
+
+  private synchronized void checkFailure() throws SQLException {
+    SQLException ex = failure;
+    if (ex != null) {
+      failure = null;
+      throw ex;
+    }
+  }
+
+  private void awaitInFlight() throws SQLException {
+    try {
+      inFlight.acquire(maxInFlight);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("executeBatch interrupted waiting for batches to finish loading");
+    }
+    inFlight.release(maxInFlight);
+  }
+
+  /**
+   * Sends what is buffered and waits for every outstanding send. Returns one
+   * update count per row added since the last call.
+   */
+  int[] flushAndWait() throws SQLException {
+    flush(true);
+    awaitInFlight();
+    int count;
+    synchronized (this) {
+      count = unreported;
+      unreported = 0;
+    }
+    checkFailure();
+    int ret[] = new int[count];
+    for (int i = 0; i < count; i++) {
+      ret[i] = 1;
+    }
+    return ret;
+  }
+
+  /**
+   * Drops rows that have not been handed to a sender yet.
+   */
+  synchronized void clear() {
+    current.clear();
+    currentBytes = 0;
+    unreported = 0;
+  }
+
+  void close() throws SQLException {
+    if (intervalTask != null) {
+      intervalTask.cancel(false);
+    }
+    flush(true);
+    awaitInFlight();
+    checkFailure();
+  }
+
+  /**
+   * How many buffers have been handed to a sender, so callers can tell when
+   * a new batch started.
+   */
+  long getFlushes() {
+    return flushes;
+  }
+
+  long getRowsSent() {
+    return rowsSent.get();
+  }
+
+  long getBatchesSent() {
+    return batchesSent.get();
+  }
+}
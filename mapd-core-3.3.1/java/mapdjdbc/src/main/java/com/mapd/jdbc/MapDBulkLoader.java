@@ -0,0 +1,602 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TRow;
+import com.mapd.thrift.server.TStringRow;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads into one table over several sessions at once.
+ *
+ * Each session has its own connection, sender thread and bounded queue.
+ * Batches without a key go round robin to the next session that has room,
+ * batches added with a key always go to the same session. add methods block
+ * while the chosen queue is full and may be called from any number of
+ * threads. A failed load is reported by every later add, flush and close.
+ * The session it failed on loads nothing after it and fails every batch
+ * still queued there, so keyed batches never reach the table past a gap.
+ *
+ * Loads that fail on the transport, or because the server lost the
+ * session, are retried on a new session up to the loadRetries connection
+ * property (default 3) times, waiting loadRetryBackoffMs (default 500)
+ * doubling up to loadRetryMaxBackoffMs (default 30000) in between. Errors
+ * the server reports about the data are not retried. A connection that
+ * drops after the server took the batch but before the reply arrived
+ * loads that batch twice, set loadRetries to 0 where that matters more than
+ * riding out a network blip.
+ *
+ * <pre>
+ * MapDBulkLoader loader = new MapDBulkLoader(url, info, "flights", 4, 8);
+ * try {
+ *   loader.addColumns(columns, rowCount);
+ *   ...
+ *   loader.flush();
+ * } finally {
+ *   loader.close();
+ * }
+ * </pre>
+ */
+public class MapDBulkLoader {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDBulkLoader.class);
+
+  /**
+   * How many distinct values of one string column a batch shares before it
+   * stops looking for repeats, both for PreparedStatement batches and for
+   * the importers' column buffers. Sharing only saves client memory and
+   * encoding time, load_table and load_table_binary_columnar still carry
+   * every row's string.
+   */
+  public static final int MAX_BATCH_DISTINCT = 4096;
+
+  /**
+   * Told on the sender thread once a batch has been loaded or has failed,
+   * after which the caller may reuse the batch's buffers. loadNanos is how
+   * long the load call took.
+   */
+  public interface BatchListener {
+
+    void batchDone(boolean loaded, long loadNanos);
+  }
+
+  private static class Batch {
+
+    final List<TColumn> columns;
+    final List<TRow> binaryRows;
+    final List<TStringRow> stringRows;
+    final int rowCount;
+    final BatchListener listener;
+
+    Batch(List<TColumn> columns, List<TRow> binaryRows, List<TStringRow> stringRows, int rowCount,
+            BatchListener listener) {
+      this.columns = columns;
+      this.binaryRows = binaryRows;
+      this.stringRows = stringRows;
+      this.rowCount = rowCount;
+      this.listener = listener;
+    }
+  }
+
+  // tells a sender thread to exit
+  private static final Batch STOP = new Batch(null, null, null, 0, null);
+  // how long close waits for room for STOP before interrupting the sender
+  private static final long STOP_WAIT_MS = 1000;
+
+  private class Sender implements Runnable {
+
+    final int index;
+    volatile MapDConnection connection;
+    final BlockingQueue<Batch> queue;
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    volatile long maxNanos = 0;
+    Thread thread;
+
+    Sender(int index, MapDConnection connection, int queueDepth) {
+      this.index = index;
+      this.connection = connection;
+      this.queue = new ArrayBlockingQueue<Batch>(queueDepth);
+    }
+
+    @Override
+    public void run() {
+      // set once a load has failed, the session is not used after that
+      Throwable broken = null;
+      while (true) {
+        Batch batch;
+        try {
+          batch = queue.take();
+        } catch (InterruptedException ex) {
+          return;
+        }
+        if (batch == STOP) {
+          return;
+        }
+        long elapsed = -1;
+        try {
+          if (broken == null) {
+            elapsed = load(batch);
+          } else {
+            setFailure(new SQLException("Load session " + index + " stopped after an earlier error - "
+                    + broken.toString() + " (" + batch.rowCount + " rows not loaded)", broken));
+          }
+        } catch (SQLException ex) {
+          broken = ex;
+          setFailure(ex);
+        } catch (Throwable ex) {
+          broken = ex;
+          logger.error("Load on session " + index + " failed", ex);
+          setFailure(new SQLException("Load on session " + index + " failed - " + ex.toString() + " ("
+                  + batch.rowCount + " rows not loaded)", ex));
+        } finally {
+          done(batch, elapsed);
+        }
+      }
+    }
+
+    /**
+     * Fails whatever is still queued once the sender thread has gone.
+     */
+    void drain() {
+      Batch batch;
+      while ((batch = queue.poll()) != null) {
+        if (batch != STOP) {
+          setFailure(new SQLException("MapDBulkLoader closed before session " + index + " loaded "
+                  + batch.rowCount + " rows"));
+          done(batch, -1);
+        }
+      }
+    }
+
+    /**
+     * Hands batch back to its listener and counts it finished, whatever the
+     * listener does, so flush and close never wait on it.
+     */
+    private void done(Batch batch, long elapsed) {
+      try {
+        if (batch.listener != null) {
+          batch.listener.batchDone(elapsed >= 0, Math.max(0, elapsed));
+        }
+      } catch (Throwable ex) {
+        logger.error("Batch listener on session " + index + " failed", ex);
+        setFailure(new SQLException("Batch listener on session " + index + " failed - " + ex.toString(), ex));
+      } finally {
+        batchDone();
+      }
+    }
+
+    /**
+     * Loads batch, retrying transient failures, and returns how long the
+     * successful call took.
+     */
+    private long load(Batch batch) throws SQLException {
+      long backoff = retryBackoffMs;
+      for (int attempt = 0;; attempt++) {
+        String error;
+        long start = System.nanoTime();
+        try {
+          MapDConnection conn = connection;
+          if (batch.columns != null) {
+            conn.client.load_table_binary_columnar(conn.session, table, batch.columns);
+          } else if (batch.binaryRows != null) {
+            conn.client.load_table_binary(conn.session, table, batch.binaryRows);
+          } else {
+            conn.client.load_table(conn.session, table, batch.stringRows);
+          }
+          long elapsed = System.nanoTime() - start;
+          loaded(batch, elapsed);
+          return elapsed;
+        } catch (TMapDException ex) {
+          error = ex.getError_msg();
+          // anything but a lost session is the data or the table, trying again will not help
+          if (error == null || !error.startsWith("Session not valid")) {
+            attempt = retries;
+          }
+        } catch (TException ex) {
+          error = ex.toString();
+        }
+        if (attempt >= retries) {
+          throw new SQLException("Load on session " + index + " failed : " + error + " (" + batch.rowCount
+                  + " rows not loaded)");
+        }
+        // jitter so sessions that failed together do not retry together
+        long sleep = backoff / 2 + (long) (Math.random() * (backoff / 2 + 1));
+        logger.warn("Load on session " + index + " failed, retrying in " + sleep + " ms : " + error);
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Load on session " + index + " interrupted : " + error + " ("
+                  + batch.rowCount + " rows not loaded)");
+        }
+        backoff = Math.min(retryMaxBackoffMs, backoff * 2);
+        reconnect();
+      }
+    }
+
+    /**
+     * Replaces this sender's connection with a new session; on failure the
+     * next attempt fails too and counts against the retries.
+     */
+    private void reconnect() {
+      MapDConnection old = connection;
+      try {
+        MapDConnection fresh = new MapDConnection(url, info);
+        retiredBytes.addAndGet(old.getMetrics().getBytesSent());
+        connection = fresh;
+        logger.info("Load session " + index + " reconnected");
+      } catch (SQLException ex) {
+        logger.warn("Load session " + index + " could not reconnect - " + ex.toString());
+        return;
+      }
+      try {
+        old.close();
+      } catch (SQLException ex) {
+        logger.debug("Closing load session " + index + " failed - " + ex.toString());
+      }
+    }
+
+    private void loaded(Batch batch, long elapsed) {
+      batches.incrementAndGet();
+      rows.addAndGet(batch.rowCount);
+      totalNanos.addAndGet(elapsed);
+      if (elapsed > maxNanos) {
+        maxNanos = elapsed;
+      }
+      rowsLoaded.addAndGet(batch.rowCount);
+      loadLatency.record(elapsed);
+    }
+  }
+
+  private final String url;
+  private final Properties info;
+  private final String table;
+  private final int retries;
+  private final long retryBackoffMs;
+  private final long retryMaxBackoffMs;
+  private final AtomicLong retiredBytes = new AtomicLong();
+  private final Sender[] senders;
+  private final AtomicInteger next = new AtomicInteger();
+  private final AtomicLong rowsLoaded = new AtomicLong();
+  private final MapDMetrics.Histogram loadLatency = new MapDMetrics.Histogram();
+  private final Object idle = new Object();
+  private long outstanding = 0;
+  private SQLException failure = null;
+  private volatile boolean closed = false;
+  private final long started = System.currentTimeMillis();
+
+  /**
+   * Opens sessions connections to url, each buffering up to queueDepth
+   * batches.
+   */
+  public MapDBulkLoader(String url, Properties info, String table, int sessions, int queueDepth) throws
+          SQLException {
+    if (sessions < 1 || queueDepth < 1) {
+      throw new SQLException("MapDBulkLoader needs at least one session and a queue depth of at least one");
+    }
+    this.url = url;
+    this.info = info;
+    this.table = table;
+    retries = MapDConnection.intProperty(info, "loadRetries", 3);
+    retryBackoffMs = Math.max(1, MapDConnection.intProperty(info, "loadRetryBackoffMs", 500));
+    retryMaxBackoffMs = Math.max(retryBackoffMs, MapDConnection.intProperty(info, "loadRetryMaxBackoffMs", 30000));
+    senders = new Sender[sessions];
+    try {
+      for (int i = 0; i < sessions; i++) {
+        senders[i] = new Sender(i, new MapDConnection(url, info), queueDepth);
+      }
+    } catch (SQLException ex) {
+      closeConnections();
+      throw ex;
+    }
+    for (Sender sender : senders) {
+      sender.thread = new Thread(sender, "mapd-bulk-load-" + table + "-" + sender.index);
+      sender.thread.setDaemon(true);
+      sender.thread.start();
+    }
+    logger.debug("Bulk loading " + table + " over " + sessions + " sessions");
+  }
+
+  public MapDBulkLoader(String url, Properties info, String table, int sessions) throws SQLException {
+    this(url, info, table, sessions, 4);
+  }
+
+  /**
+   * Queues a columnar batch for load_table_binary_columnar.
+   */
+  public void addColumns(List<TColumn> columns, int rowCount) throws SQLException {
+    enqueue(null, new Batch(columns, null, null, rowCount, null));
+  }
+
+  /**
+   * Queues a columnar batch on the session key hashes to.
+   */
+  public void addColumns(Object key, List<TColumn> columns, int rowCount) throws SQLException {
+    enqueue(key, new Batch(columns, null, null, rowCount, null));
+  }
+
+  /**
+   * Queues a columnar batch and tells listener when it is done with it; key
+   * may be null.
+   */
+  public void addColumns(Object key, List<TColumn> columns, int rowCount, BatchListener listener) throws
+          SQLException {
+    enqueue(key, new Batch(columns, null, null, rowCount, listener));
+  }
+
+  /**
+   * Queues rows for load_table_binary.
+   */
+  public void addRows(List<TRow> rows) throws SQLException {
+    enqueue(null, new Batch(null, rows, null, rows.size(), null));
+  }
+
+  public void addRows(Object key, List<TRow> rows) throws SQLException {
+    enqueue(key, new Batch(null, rows, null, rows.size(), null));
+  }
+
+  /**
+   * Queues rows for load_table, the string form used by addBatch.
+   */
+  public void addStringRows(List<TStringRow> rows) throws SQLException {
+    enqueue(null, new Batch(null, null, rows, rows.size(), null));
+  }
+
+  public void addStringRows(Object key, List<TStringRow> rows) throws SQLException {
+    enqueue(key, new Batch(null, null, rows, rows.size(), null));
+  }
+
+  private void enqueue(Object key, Batch batch) throws SQLException {
+    if (closed) {
+      throw new SQLException("MapDBulkLoader has been closed");
+    }
+    checkFailure();
+    synchronized (idle) {
+      outstanding++;
+    }
+    boolean queued = false;
+    try {
+      Sender sender = null;
+      if (key != null) {
+        sender = senders[(key.hashCode() & Integer.MAX_VALUE) % senders.length];
+        sender.queue.put(batch);
+      } else {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % senders.length;
+        // prefer a session with room, so one slow session does not hold up the rest
+        for (int i = 0; i < senders.length && !queued; i++) {
+          sender = senders[(start + i) % senders.length];
+          queued = sender.queue.offer(batch);
+        }
+        if (!queued) {
+          sender = senders[start];
+          sender.queue.put(batch);
+        }
+      }
+      // close may have stopped the sender while this was waiting for room
+      if (closed && sender.queue.remove(batch)) {
+        throw new SQLException("MapDBulkLoader has been closed");
+      }
+      queued = true;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for room in the load queue");
+    } finally {
+      if (!queued) {
+        batchDone();
+      }
+    }
+  }
+
+  private void batchDone() {
+    synchronized (idle) {
+      outstanding--;
+      if (outstanding == 0) {
+        idle.notifyAll();
+      }
+    }
+  }
+
+  private void setFailure(SQLException ex) {
+    logger.error(ex.getMessage());
+    synchronized (idle) {
+      if (failure == null) {
+        failure = ex;
+      } else {
+        failure.setNextException(ex);
+      }
+    }
+  }
+
+  /**
+   * Throws the first failure; it stays set so every producer sees it.
+   */
+  private void checkFailure() throws SQLException {
+    SQLException ex;
+    synchronized (idle) {
+      ex = failure;
+    }
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+  /**
+   * Waits until every batch queued so far has been loaded.
+   */
+  public void flush() throws SQLException {
+    synchronized (idle) {
+      while (outstanding > 0) {
+        try {
+          idle.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted waiting for loads to finish");
+        }
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * Loads everything still queued, then closes all sessions. Batches that
+   * producers still add meanwhile are failed rather than loaded.
+   */
+  public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      closed = true;
+      for (Sender sender : senders) {
+        try {
+          if (!sender.queue.offer(STOP, STOP_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            // the queue is still being filled, take() gives up on interrupt instead
+            sender.thread.interrupt();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          sender.thread.interrupt();
+        }
+      }
+      for (Sender sender : senders) {
+        try {
+          sender.thread.join();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      for (Sender sender : senders) {
+        sender.drain();
+      }
+      closeConnections();
+      logger.info(toString());
+    }
+  }
+
+  private void closeConnections() {
+    for (Sender sender : senders) {
+      if (sender != null) {
+        try {
+          sender.connection.close();
+        } catch (SQLException ex) {
+          logger.debug("Closing load session " + sender.index + " failed - " + ex.toString());
+        }
+      }
+    }
+  }
+
+  /**
+   * The target table's columns, from get_table_details.
+   */
+  public List<TColumnType> getTableColumns() throws SQLException {
+    MapDConnection connection = senders[0].connection;
+    try {
+      return connection.client.get_table_details(connection.session, table).row_desc;
+    } catch (TMapDException ex) {
+      throw new SQLException("get_table_details failed - " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("get_table_details failed - " + ex.toString());
+    }
+  }
+
+  public int getSessionCount() {
+    return senders.length;
+  }
+
+  public long getRowsLoaded() {
+    return rowsLoaded.get();
+  }
+
+  /**
+   * Rows loaded per second since the loader was created.
+   */
+  public double getRowsPerSecond() {
+    long elapsed = Math.max(1, System.currentTimeMillis() - started);
+    return rowsLoaded.get() * 1000.0 / elapsed;
+  }
+
+  /**
+   * Latency of every successful load call, over all sessions.
+   */
+  public MapDMetrics.Histogram getLoadLatency() {
+    return loadLatency;
+  }
+
+  /**
+   * Bytes written to the server by all sessions, as sent on the wire.
+   */
+  public long getBytesSent() {
+    long bytes = retiredBytes.get();
+    for (Sender sender : senders) {
+      bytes += sender.connection.getMetrics().getBytesSent();
+    }
+    return bytes;
+  }
+
+  public long getSessionBatches(int session) {
+    return senders[session].batches.get();
+  }
+
+  public long getSessionRows(int session) {
+    return senders[session].rows.get();
+  }
+
+  /**
+   * Mean time of one load call on session, in milliseconds.
+   */
+  public double getSessionMeanLatencyMs(int session) {
+    long count = senders[session].batches.get();
+    return count == 0 ? 0 : senders[session].totalNanos.get() / 1e6 / count;
+  }
+
+  public double getSessionMaxLatencyMs(int session) {
+    return senders[session].maxNanos / 1e6;
+  }
+
+  public int getSessionQueueLength(int session) {
+    return senders[session].queue.size();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%s: %d rows, %.0f rows/s over %d sessions", table, rowsLoaded.get(),
+            getRowsPerSecond(), senders.length));
+    for (int i = 0; i < senders.length; i++) {
+      sb.append(String.format("; [%d] %d batches, mean %.1f ms, max %.1f ms", i, getSessionBatches(i),
+              getSessionMeanLatencyMs(i), getSessionMaxLatencyMs(i)));
+    }
+    return sb.toString();
+  }
+}
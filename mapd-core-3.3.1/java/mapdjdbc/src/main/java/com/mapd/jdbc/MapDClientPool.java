@@ -0,0 +1,503 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import com.mapd.thrift.server.TRowSet;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.THttpClient;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TZlibTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Set of transports to one server that all carry the same session.
+ *
+ * A thrift client can only have one request in flight, so every call made
+ * through getClient() checks out an idle channel (opening a new one while
+ * fewer than maxChannels exist), runs the call and hands the channel back.
+ * Statements on one connection can therefore run from several threads at
+ * once. Channels that fail with a transport error are closed rather than
+ * reused.
+ */
+class MapDClientPool {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDClientPool.class);
+
+  /**
+   * Wire formats the server can listen with, each on its own port: the main
+   * binary port, the HTTP/JSON port, --http-binary-port, --framed-port and
+   * --compressed-port.
+   */
+  enum Transport {
+    BINARY, HTTP, HTTP_BINARY, FRAMED, ZLIB;
+
+    boolean isHttp() {
+      return this == HTTP || this == HTTP_BINARY;
+    }
+
+    static Transport fromName(String name) {
+      for (Transport t : values()) {
+        if (t.name().equalsIgnoreCase(name)) {
+          return t;
+        }
+      }
+      return null;
+    }
+  }
+
+  static class Channel {
+
+    final TTransport transport;
+    final MapDCountingTransport counter;
+    final MapD.Client client;
+
+    Channel(TTransport transport, MapDCountingTransport counter, MapD.Client client) {
+      this.transport = transport;
+      this.counter = counter;
+      this.client = client;
+    }
+  }
+
+  /**
+   * Lets a statement stop waiting on its calls, for query timeouts and
+   * cancel, without the server's help. Once stopped the caller gets a
+   * TTransportException straight away and the channel the call was on is
+   * dropped: a socket channel is closed under the call, an HTTP call is left
+   * to finish on a background thread. The server still runs the query to
+   * the end.
+   */
+  static class CallLimit {
+
+    private int run = 0;
+    // why the current run was stopped, null while it is not
+    private String stopped = null;
+    private Channel channel = null;
+
+    /**
+     * Starts a new run, returning its number for stop.
+     */
+    synchronized int start() {
+      run++;
+      stopped = null;
+      channel = null;
+      return run;
+    }
+
+    /**
+     * Stops run if it is still the current one.
+     */
+    synchronized boolean stop(int run, String why) {
+      if (run != this.run || stopped != null) {
+        return false;
+      }
+      stopped = why;
+      if (channel != null) {
+        channel.transport.close();
+      }
+      notifyAll();
+      return true;
+    }
+
+    synchronized boolean attach(Channel channel) {
+      if (stopped != null) {
+        return false;
+      }
+      this.channel = channel;
+      return true;
+    }
+
+    /**
+     * Ends the call on the attached channel, returning true when stop closed
+     * that channel under it, in which case it must not be reused.
+     */
+    synchronized boolean detach() {
+      boolean closed = stopped != null && channel != null;
+      channel = null;
+      return closed;
+    }
+
+    synchronized TTransportException failure() {
+      return stopped == null ? null : new TTransportException(TTransportException.UNKNOWN, stopped);
+    }
+  }
+
+  private static ExecutorService background = null;
+
+  private static synchronized ExecutorService getBackground() {
+    if (background == null) {
+      background = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "mapd-http-call");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return background;
+  }
+
+  private final String machine;
+  private final int port;
+  private final Transport mode;
+  private final int compressionLevel;
+  private final int maxChannels;
+
+  private final ConcurrentLinkedQueue<Channel> idle = new ConcurrentLinkedQueue<Channel>();
+  private final Semaphore permits;
+  private final AtomicInteger open = new AtomicInteger();
+  private volatile boolean closed = false;
+  private final MapD.Iface proxy;
+  private final MapDMetrics metrics;
+  // keep-alive connections shared by every HTTP channel
+  private final CloseableHttpClient httpClient;
+
+  MapDClientPool(String machine, int port, Transport mode, int compressionLevel, int maxChannels,
+          MapDMetrics metrics) {
+    this.machine = machine;
+    this.metrics = metrics;
+    this.port = port;
+    this.mode = mode;
+    this.compressionLevel = compressionLevel;
+    this.maxChannels = Math.max(1, maxChannels);
+    permits = new Semaphore(this.maxChannels, true);
+    if (mode.isHttp()) {
+      PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+      connections.setMaxTotal(this.maxChannels);
+      connections.setDefaultMaxPerRoute(this.maxChannels);
+      httpClient = HttpClients.custom().setConnectionManager(connections).build();
+    } else {
+      httpClient = null;
+    }
+    proxy = getClient(null);
+  }
+
+  /**
+   * Returns a thread safe client; each call runs on its own channel.
+   */
+  MapD.Iface getClient() {
+    return proxy;
+  }
+
+  /**
+   * A client whose calls give up once limit is stopped.
+   */
+  MapD.Iface getClient(final CallLimit limit) {
+    return (MapD.Iface) Proxy.newProxyInstance(MapD.Iface.class.getClassLoader(),
+            new Class<?>[]{MapD.Iface.class}, new InvocationHandler() {
+              @Override
+              public Object invoke(Object o, Method method, Object[] args) throws Throwable {
+                return call(method, args, limit);
+              }
+            });
+  }
+
+  int getMaxChannels() {
+    return maxChannels;
+  }
+
+  int getOpenChannels() {
+    return open.get();
+  }
+
+  Channel borrow(CallLimit limit) throws TException {
+    if (closed) {
+      throw new TTransportException(TTransportException.NOT_OPEN, "Connection has been closed");
+    }
+    try {
+      if (limit == null) {
+        permits.acquire();
+      } else {
+        while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          TTransportException stopped = limit.failure();
+          if (stopped != null) {
+            throw stopped;
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new TTransportException(TTransportException.UNKNOWN, "Interrupted waiting for a free channel");
+    }
+    Channel channel = idle.poll();
+    if (channel != null) {
+      return channel;
+    }
+    try {
+      return openChannel();
+    } catch (TTransportException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  void release(Channel channel, boolean broken) {
+    if (broken || closed) {
+      closeChannel(channel);
+    } else {
+      idle.offer(channel);
+    }
+    permits.release();
+  }
+
+  private Channel openChannel() throws TTransportException {
+    // counted beneath any framing or compression, so it sees wire bytes
+    MapDCountingTransport counter;
+    TTransport transport;
+    TProtocol protocol;
+    switch (mode) {
+      case HTTP:
+        counter = new MapDCountingTransport(new THttpClient("http://" + machine + ":" + port, httpClient));
+        transport = counter;
+        transport.open();
+        protocol = new TJSONProtocol(transport);
+        break;
+      case HTTP_BINARY:
+        counter = new MapDCountingTransport(new THttpClient("http://" + machine + ":" + port, httpClient));
+        transport = counter;
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+        break;
+      case FRAMED:
+        counter = new MapDCountingTransport(new TSocket(machine, port));
+        transport = new TFramedTransport(counter);
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+        break;
+      case ZLIB:
+        counter = new MapDCountingTransport(new TSocket(machine, port));
+        // the server side pairs TZlibTransport with the compact protocol
+        transport = compressionLevel < 0 ? new TZlibTransport(counter) : new TZlibTransport(counter, compressionLevel);
+        transport.open();
+        protocol = new TCompactProtocol(transport);
+        break;
+      default:
+        counter = new MapDCountingTransport(new TSocket(machine, port));
+        transport = counter;
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+        break;
+    }
+    logger.debug("Opened " + mode + " channel " + (open.get() + 1) + " of " + maxChannels + " to " + machine + ":"
+            + port);
+    open.incrementAndGet();
+    return new Channel(transport, counter, new MapD.Client(protocol));
+  }
+
+  private void closeChannel(Channel channel) {
+    open.decrementAndGet();
+    channel.transport.close();
+  }
+
+  private Object call(Method method, Object[] args, CallLimit limit) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+    if (limit != null && mode.isHttp()) {
+      // closing an http transport does not abort the request, wait for it elsewhere
+      return callInBackground(method, args, limit);
+    }
+    Channel channel = borrow(limit);
+    boolean broken = true;
+    if (limit != null && !limit.attach(channel)) {
+      release(channel, false);
+      throw limit.failure();
+    }
+    channel.counter.reset();
+    long start = System.nanoTime();
+    try {
+      Object result = method.invoke(channel.client, args);
+      broken = false;
+      record(method.getName(), args, result, channel.counter, start);
+      return result;
+    } catch (InvocationTargetException ex) {
+      Throwable cause = ex.getCause();
+      // server side errors leave the channel usable, anything else may have
+      // left a half read reply on the wire
+      broken = !(cause instanceof TMapDException);
+      if (method.getName().equals("sql_execute")) {
+        metrics.recordQueryError();
+      }
+      TTransportException stopped = limit == null ? null : limit.failure();
+      if (stopped != null) {
+        broken = true;
+        throw stopped;
+      }
+      throw cause;
+    } finally {
+      // a stop that lands after the call returned has still closed the channel
+      if (limit != null && limit.detach()) {
+        broken = true;
+      }
+      metrics.recordBytes(channel.counter.getBytesWritten(), channel.counter.getBytesRead());
+      release(channel, broken);
+    }
+  }
+
+  /**
+   * Runs the call on a background thread and waits for it until limit is
+   * stopped; a call given up on finishes and returns its channel as usual.
+   */
+  private Object callInBackground(final Method method, final Object[] args, final CallLimit limit) throws
+          Throwable {
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        try {
+          return MapDClientPool.this.call(method, args, null);
+        } catch (Exception ex) {
+          throw ex;
+        } catch (Error ex) {
+          throw ex;
+        } catch (Throwable ex) {
+          throw new UndeclaredThrowableException(ex);
+        }
+      }
+    }) {
+      @Override
+      protected void done() {
+        synchronized (limit) {
+          limit.notifyAll();
+        }
+      }
+    };
+    getBackground().execute(task);
+    synchronized (limit) {
+      while (!task.isDone() && limit.failure() == null) {
+        try {
+          limit.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new TTransportException(TTransportException.UNKNOWN, "Interrupted waiting for the server");
+        }
+      }
+    }
+    if (!task.isDone()) {
+      throw limit.failure();
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private void record(String name, Object[] args, Object result, MapDCountingTransport counter, long start) {
+    long end = System.nanoTime();
+    if (name.equals("sql_execute")) {
+      TQueryResult queryResult = (TQueryResult) result;
+      long firstRead = counter.getFirstReadAt();
+      metrics.recordQuery(end - start, queryResult.execution_time_ms, queryResult.total_time_ms,
+              counter.getWaitNanos(), firstRead == 0 ? -1 : end - firstRead, rowCount(queryResult.row_set));
+    } else if (name.startsWith("load_table") && args[2] instanceof List) {
+      List<?> batch = (List<?>) args[2];
+      long rows = batch.size();
+      if (name.equals("load_table_binary_columnar")) {
+        rows = batch.isEmpty() ? 0 : ((TColumn) batch.get(0)).getNullsSize();
+      }
+      metrics.recordLoad(rows, end - start);
+    }
+  }
+
+  static long rowCount(TRowSet rowSet) {
+    if (rowSet == null) {
+      return 0;
+    }
+    if (rowSet.is_columnar) {
+      return rowSet.columns == null || rowSet.columns.isEmpty() ? 0 : rowSet.columns.get(0).getNullsSize();
+    }
+    return rowSet.rows == null ? 0 : rowSet.rows.size();
+  }
+
+  /**
+   * Sends interrupt for session without waiting for a free channel, since
+   * the channel running the query being interrupted may be the only one.
+   * It goes over a pooled channel when a permit is free, otherwise over a
+   * connection of its own that is closed straight after.
+   */
+  void interrupt(String session) throws TException {
+    boolean pooled = !closed && permits.tryAcquire();
+    Channel channel = pooled ? idle.poll() : null;
+    if (channel == null) {
+      try {
+        channel = openChannel();
+      } catch (TTransportException ex) {
+        if (pooled) {
+          permits.release();
+        }
+        throw ex;
+      }
+    }
+    boolean broken = true;
+    try {
+      channel.client.interrupt(session);
+      broken = false;
+    } finally {
+      if (pooled) {
+        release(channel, broken);
+      } else {
+        closeChannel(channel);
+      }
+    }
+  }
+
+  void close() {
+    closed = true;
+    Channel channel;
+    while ((channel = idle.poll()) != null) {
+      closeChannel(channel);
+    }
+    if (httpClient != null) {
+      try {
+        httpClient.close();
+      } catch (IOException ex) {
+        logger.debug("Closing http client failed - " + ex.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TDatumType;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Reads one column of a columnar TRowSet. MapDResultSet builds one per
+ * column when it is created, picked by the column's type, so the getters
+ * index straight into the right Thrift list instead of looking the type up
+ * for every cell. The null list is always read, a target the server reports
+ * as not null can still hold nulls, e.g. on the outer side of a LEFT JOIN.
+ * Callers check isNull first; conversions a type does not support throw
+ * SQLException.
+ */
+abstract class MapDColumnAccessor {
+
+  final TDatumType type;
+  private final boolean nullable;
+  private final List<Boolean> nulls;
+
+  MapDColumnAccessor(TColumnType colType, TColumn column) {
+    type = colType.col_type.type;
+    nullable = colType.col_type.nullable;
+    nulls = column.nulls;
+  }
+
+  static MapDColumnAccessor forColumn(TColumnType colType, TColumn column) {
+    if (colType.col_type.is_array) {
+      return new Unsupported(colType, column);
+    }
+    switch (colType.col_type.type) {
+      case SMALLINT:
+      case INT:
+      case BIGINT:
+        return new IntAccessor(colType, column);
+      case BOOL:
+        return new BoolAccessor(colType, column);
+      case TIME:
+      case TIMESTAMP:
+      case DATE:
+        return new TimeAccessor(colType, column);
+      case FLOAT:
+      case DECIMAL:
+        return new RealAccessor(colType, column);
+      case DOUBLE:
+        return new DoubleAccessor(colType, column);
+      case STR:
+        return new StrAccessor(colType, column);
+      default:
+        return new Unsupported(colType, column);
+    }
+  }
+
+  final boolean isNull(int row) {
+    return nulls.get(row);
+  }
+
+  final boolean isNullable() {
+    return nullable;
+  }
+
+  /**
+   * The read methods copy count values starting at row from into dest, for
+   * MapDColumnarResult.
+   */
+  final void readNulls(int from, boolean[] dest, int count) {
+    for (int i = 0; i < count; i++) {
+      dest[i] = nulls.get(from + i);
+    }
+  }
+
+  void readLongs(int from, long[] dest, int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      dest[i] = isNull(from + i) ? 0 : getLong(from + i);
+    }
+  }
+
+  void readDoubles(int from, double[] dest, int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      dest[i] = isNull(from + i) ? 0 : getDouble(from + i);
+    }
+  }
+
+  void readStrings(int from, String[] dest, int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      dest[i] = isNull(from + i) ? null : getString(from + i);
+    }
+  }
+
+  SQLException cannotConvert(String to) {
+    return new SQLException("Cannot read a " + type + " column as " + to);
+  }
+
+  abstract String getString(int row) throws SQLException;
+
+  abstract Object getObject(int row) throws SQLException;
+
+  abstract long getLong(int row) throws SQLException;
+
+  abstract double getDouble(int row) throws SQLException;
+
+  float getFloat(int row) throws SQLException {
+    return (float) getDouble(row);
+  }
+
+  boolean getBoolean(int row) throws SQLException {
+    return getLong(row) != 0;
+  }
+
+  BigDecimal getBigDecimal(int row) throws SQLException {
+    return BigDecimal.valueOf(getLong(row));
+  }
+
+  /**
+   * Milliseconds since the epoch for Date, Time and Timestamp getters.
+   */
+  long getMillis(int row) throws SQLException {
+    throw cannotConvert("a date or time");
+  }
+
+  private static class IntAccessor extends MapDColumnAccessor {
+
+    final List<Long> data;
+
+    IntAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+      data = column.data.int_col;
+    }
+
+    @Override
+    String getString(int row) {
+      return Long.toString(data.get(row));
+    }
+
+    @Override
+    Object getObject(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    long getLong(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    double getDouble(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    long getMillis(int row) {
+      return data.get(row) * 1000;
+    }
+
+    @Override
+    void readLongs(int from, long[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i);
+      }
+    }
+
+    @Override
+    void readDoubles(int from, double[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i);
+      }
+    }
+  }
+
+  private static class BoolAccessor extends IntAccessor {
+
+    BoolAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+    }
+
+    @Override
+    String getString(int row) {
+      return data.get(row) != 0 ? "1" : "0";
+    }
+  }
+
+  /**
+   * TIME, TIMESTAMP and DATE, sent as seconds since the epoch.
+   */
+  private static class TimeAccessor extends IntAccessor {
+
+    TimeAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+    }
+
+    @Override
+    String getString(int row) {
+      long millis = getMillis(row);
+      switch (type) {
+        case TIME:
+          return new Time(millis).toString();
+        case DATE:
+          return new Date(millis).toString();
+        default:
+          return new Timestamp(millis).toString();
+      }
+    }
+
+    @Override
+    double getDouble(int row) {
+      return getMillis(row);
+    }
+
+    @Override
+    void readDoubles(int from, double[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i) * 1000;
+      }
+    }
+  }
+
+  private static class DoubleAccessor extends MapDColumnAccessor {
+
+    final List<Double> data;
+
+    DoubleAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+      data = column.data.real_col;
+    }
+
+    @Override
+    String getString(int row) {
+      return Double.toString(data.get(row));
+    }
+
+    @Override
+    Object getObject(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    long getLong(int row) {
+      return data.get(row).longValue();
+    }
+
+    @Override
+    double getDouble(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    boolean getBoolean(int row) {
+      return data.get(row) != 0;
+    }
+
+    @Override
+    BigDecimal getBigDecimal(int row) {
+      return new BigDecimal(data.get(row));
+    }
+
+    @Override
+    void readLongs(int from, long[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i).longValue();
+      }
+    }
+
+    @Override
+    void readDoubles(int from, double[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i);
+      }
+    }
+  }
+
+  /**
+   * FLOAT and DECIMAL, which render as floats.
+   */
+  private static class RealAccessor extends DoubleAccessor {
+
+    RealAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+    }
+
+    @Override
+    String getString(int row) {
+      return Float.toString(data.get(row).floatValue());
+    }
+  }
+
+  private static class StrAccessor extends MapDColumnAccessor {
+
+    final List<String> data;
+
+    StrAccessor(TColumnType colType, TColumn column) {
+      super(colType, column);
+      data = column.data.str_col;
+    }
+
+    @Override
+    String getString(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    Object getObject(int row) {
+      return data.get(row);
+    }
+
+    @Override
+    void readStrings(int from, String[] dest, int count) {
+      for (int i = 0; i < count; i++) {
+        dest[i] = data.get(from + i);
+      }
+    }
+
+    @Override
+    long getLong(int row) throws SQLException {
+      try {
+        return Long.parseLong(data.get(row).trim());
+      } catch (NumberFormatException ex) {
+        throw cannotConvert("a number - " + ex.getMessage());
+      }
+    }
+
+    @Override
+    double getDouble(int row) throws SQLException {
+      try {
+        return Double.parseDouble(data.get(row).trim());
+      } catch (NumberFormatException ex) {
+        throw cannotConvert("a number - " + ex.getMessage());
+      }
+    }
+
+    @Override
+    boolean getBoolean(int row) {
+      String value = data.get(row).trim();
+      return value.equals("1") || value.equalsIgnoreCase("true") || value.equalsIgnoreCase("t");
+    }
+
+    @Override
+    BigDecimal getBigDecimal(int row) throws SQLException {
+      try {
+        return new BigDecimal(data.get(row).trim());
+      } catch (NumberFormatException ex) {
+        throw cannotConvert("a number - " + ex.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Arrays and anything newer than this driver.
+   */
+  private static class Unsupported extends MapDColumnAccessor {
+
+    Unsupported(TColumnType colType, TColumn column) {
+      super(colType, column);
+    }
+
+    @Override
+    String getString(int row) throws SQLException {
+      throw cannotConvert("a string");
+    }
+
+    @Override
+    Object getObject(int row) throws SQLException {
+      throw cannotConvert("an object");
+    }
+
+    @Override
+    long getLong(int row) throws SQLException {
+      throw cannotConvert("a number");
+    }
+
+    @Override
+    double getDouble(int row) throws SQLException {
+      throw cannotConvert("a number");
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Column at a time view of a query result, reached with
+ * rs.unwrap(MapDColumnarResult.class).
+ *
+ * The read methods copy up to dest.length values of a column, starting at
+ * row from, and return how many were copied, so one set of arrays can be
+ * reused page after page. Rows are numbered from 0 and columns from 1, as
+ * in JDBC. Values convert as getLong, getDouble and getString would, so
+ * times read as longs are seconds since the epoch. What a null row reads
+ * as is unspecified, check the null mask.
+ * The view does not move or depend on the result set's cursor.
+ */
+public interface MapDColumnarResult {
+
+  int getRowCount();
+
+  int getColumnCount();
+
+  String getColumnName(int column) throws SQLException;
+
+  /**
+   * The column's java.sql.Types type.
+   */
+  int getColumnType(int column) throws SQLException;
+
+  /**
+   * False when the server reports the column as not null. That is taken
+   * from the target's type and does not hold on the outer side of a join,
+   * readNulls is what says which rows are null.
+   */
+  boolean isNullable(int column) throws SQLException;
+
+  int readNulls(int column, int from, boolean[] dest) throws SQLException;
+
+  int readLongs(int column, int from, long[] dest) throws SQLException;
+
+  int readDoubles(int column, int from, double[] dest) throws SQLException;
+
+  int readStrings(int column, int from, String[] dest) throws SQLException;
+
+  /**
+   * The whole null mask of a column.
+   */
+  boolean[] getNulls(int column) throws SQLException;
+
+  long[] getLongs(int column) throws SQLException;
+
+  double[] getDoubles(int column) throws SQLException;
+
+  String[] getStrings(int column) throws SQLException;
+}
@@ -37,12 +37,6 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TJSONProtocol;
-import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.transport.TSocket;
-import org.apache.thrift.transport.THttpClient;
-import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,18 +49,26 @@ public class MapDConnection implements java.sql.Connection {
 
   final static Logger logger = LoggerFactory.getLogger(MapDConnection.class);
 
-  protected String session = null;
-  protected MapD.Client client = null;
+  protected volatile String session = null;
+  protected MapD.Iface client = null;
   protected String url = null;
   protected Properties properties = null;
   protected String user;
-  protected TTransport transport;
+  protected MapDClientPool clientPool;
+  protected String machine;
+  protected MapDAsyncClientPool asyncClientPool = null;
+  protected MapDMetadataCache metadataCache;
+  protected MapDResultCache resultCache = null;
+  protected String db;
+  protected MapDMetrics metrics;
   protected SQLWarning warnings;
+  // interruptOnCancel: also interrupt the server on query timeout and cancel
+  protected boolean interruptOnCancel;
 
   public MapDConnection(String url, Properties info) throws SQLException { //logger.debug("Entered");
     this.url = url;
     this.properties = info;
-    boolean http_session = false;
+    MapDClientPool.Transport transport = null;
 
     //logger.debug("We got to here " + url + " info: " + info.toString());
     String[] temp = url.split(":");
@@ -74,7 +76,7 @@ public class MapDConnection implements java.sql.Connection {
     //for (int i = 0; i < temp.length; i++) {
     //  logger.debug("temp  " + i + " " + temp[i].toString());
     //}
-    String machine = temp[2];
+    machine = temp[2];
 
     // deal with requirement that there may be double // before the machine
     if (machine.startsWith("//")) {
@@ -83,27 +85,42 @@ public class MapDConnection implements java.sql.Connection {
 
     //logger.debug("machine : " + machine);
     int port = Integer.valueOf(temp[3]);
-    String db = temp[4];
-    //test for http protocol request (we could consider usinig properties)
-    if (temp.length == 6) {
-      if (temp[5].equals("http")) {
-        http_session = true;
-      } else {
+    db = temp[4];
+    // transport can be given as a trailing url option (http, http:binary,
+    // framed, zlib) or the transport and protocol properties
+    if (temp.length == 6 || temp.length == 7) {
+      transport = MapDClientPool.Transport.fromName(temp[5]);
+      if (transport == null) {
         throw new SQLException("Connection failed invalid protocol option- " + temp[5]);
       }
+      if (temp.length == 7) {
+        transport = httpProtocol(transport, temp[6]);
+      }
+    } else if (info.getProperty("transport") != null) {
+      transport = MapDClientPool.Transport.fromName(info.getProperty("transport"));
+      if (transport == null) {
+        throw new SQLException("Connection failed invalid transport - " + info.getProperty("transport"));
+      }
+      if (info.getProperty("protocol") != null) {
+        transport = httpProtocol(transport, info.getProperty("protocol"));
+      }
+    } else {
+      transport = MapDClientPool.Transport.BINARY;
     }
+    int maxChannels = intProperty(info, "maxChannels", 8);
+    interruptOnCancel = Boolean.parseBoolean(info.getProperty("interruptOnCancel", "false"));
+    metrics = MapDMetrics.forConnection();
     try {
-      TProtocol protocol = null;
-      if (http_session) {
-        transport = new THttpClient("http://" + machine + ":" + port);
-        transport.open();
-        protocol = new TJSONProtocol(transport);
-      } else {
-        transport = new TSocket(machine, port);
-        transport.open();
-        protocol = new TBinaryProtocol(transport);
+      clientPool = new MapDClientPool(machine, port, transport, intProperty(info, "compressionLevel", -1),
+              maxChannels, metrics);
+      client = clientPool.getClient();
+      metadataCache = new MapDMetadataCache(client, intProperty(info, "metadataCacheTtlMs", 60000),
+              intProperty(info, "metadataPrefetchThreads", maxChannels));
+      int resultCacheSize = intProperty(info, "resultCacheSize", 0);
+      if (resultCacheSize > 0) {
+        resultCache = new MapDResultCache(client, metadataCache, resultCacheSize,
+                intProperty(info, "resultCacheMaxRows", 10000), intProperty(info, "resultCacheTtlMs", 0));
       }
-      client = new MapD.Client(protocol);
 
       session = client.connect(info.getProperty("user"), info.getProperty("password"), db);
 
@@ -115,17 +132,144 @@ public class MapDConnection implements java.sql.Connection {
       throw new SQLException("Connection failed - " + ex.toString());
     } catch (TException ex) {
       throw new SQLException("Connection failed - " + ex.toString());
+    } finally {
+      if (session == null) {
+        if (clientPool != null) {
+          clientPool.close();
+        }
+        metrics.unregister();
+      }
+    }
+  }
+
+  /**
+   * Picks the protocol spoken over http: json for the server's http-port,
+   * binary for its http-binary-port.
+   */
+  private static MapDClientPool.Transport httpProtocol(MapDClientPool.Transport transport, String protocol) throws
+          SQLException {
+    if (!transport.isHttp()) {
+      throw new SQLException("Connection failed protocol " + protocol + " only applies to http");
     }
+    if (protocol.equalsIgnoreCase("binary")) {
+      return MapDClientPool.Transport.HTTP_BINARY;
+    }
+    if (protocol.equalsIgnoreCase("json")) {
+      return MapDClientPool.Transport.HTTP;
+    }
+    throw new SQLException("Connection failed invalid http protocol - " + protocol);
+  }
+
+  static int intProperty(Properties info, String name, int defaultValue) throws SQLException {
+    String value = info.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      throw new SQLException("Connection failed invalid " + name + " - " + value);
+    }
+  }
+
+  /**
+   * Runs a query without blocking the caller, see
+   * MapDStatement.executeQueryAsync.
+   */
+  public MapDResultFuture executeQueryAsync(String sql) throws SQLException {
+    return new MapDStatement(session, client, this).executeQueryAsync(sql);
+  }
+
+  /**
+   * A client whose calls give up once limit is stopped, see
+   * MapDClientPool.CallLimit.
+   */
+  MapD.Iface getClient(MapDClientPool.CallLimit limit) {
+    return clientPool.getClient(limit);
+  }
+
+  /**
+   * Sends the server an interrupt for this session. The server only acts on
+   * it when started with --enable-dynamic-watchdog, and then interrupts the
+   * executor of the session's database, stopping every query running
+   * against that database, other users' included. Only used when the
+   * interruptOnCancel property is set.
+   */
+  void interruptSession() throws SQLException {
+    String current = session;
+    if (current == null) {
+      return;
+    }
+    try {
+      clientPool.interrupt(current);
+    } catch (TMapDException ex) {
+      throw new SQLException("interrupt failed - " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("interrupt failed - " + ex.toString());
+    }
+  }
+
+  /**
+   * Counters for this connection; MapDMetrics.getDriverMetrics() has the
+   * totals over all connections.
+   */
+  public MapDMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Drops cached table metadata, for callers that know the schema was changed
+   * by another client.
+   */
+  public void invalidateMetadataCache() {
+    metadataCache.invalidate();
+  }
+
+  /**
+   * Called by statements after running sql.
+   */
+  void statementExecuted(String sql) {
+    if (MapDMetadataCache.isSchemaChange(sql)) {
+      metadataCache.invalidate();
+    }
+    if (resultCache != null && !MapDResultCache.isQuery(sql)) {
+      resultCache.invalidate();
+    }
+  }
+
+  /**
+   * Drops cached query results, see the resultCacheSize connection property.
+   */
+  public void invalidateResultCache() {
+    if (resultCache != null) {
+      resultCache.invalidate();
+    }
+  }
+
+  synchronized MapDAsyncClientPool getAsyncClientPool() throws SQLException {
+    if (session == null) {
+      throw new SQLException("Connection has been closed");
+    }
+    if (asyncClientPool == null) {
+      int asyncPort = intProperty(properties, "asyncPort", 0);
+      if (asyncPort <= 0) {
+        throw new SQLException("Asynchronous queries need the asyncPort connection property"
+                + " set to the server's --framed-port");
+      }
+      asyncClientPool = new MapDAsyncClientPool(machine, asyncPort, intProperty(properties, "maxAsyncClients", 4),
+              metrics);
+    }
+    return asyncClientPool;
   }
 
   @Override
   public Statement createStatement() throws SQLException { //logger.debug("Entered");
-    return new MapDStatement(session, client);
+    return new MapDStatement(session, client, this);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql) throws SQLException { //logger.debug("Entered");
-    return new MapDPreparedStatement(sql, session, client);
+    return new MapDPreparedStatement(sql, session, client, this);
   }
 
   @Override
@@ -171,12 +315,20 @@ public class MapDConnection implements java.sql.Connection {
       if (session != null) {
         client.disconnect(session);
       }
-      session = null;
-      transport.close();
     } catch (TMapDException ex) {
       throw new SQLException("disconnect failed." + ex.toString());
     } catch (TException ex) {
       throw new SQLException("disconnect failed." + ex.toString());
+    } finally {
+      // a broken session must still read as closed so pools can drop it
+      session = null;
+      clientPool.close();
+      metrics.unregister();
+      synchronized (this) {
+        if (asyncClientPool != null) {
+          asyncClientPool.close();
+        }
+      }
     }
   }
 
@@ -250,12 +402,12 @@ public class MapDConnection implements java.sql.Connection {
 
   @Override
   public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException { //logger.debug("Entered");
-    return new MapDStatement(session, client);
+    return new MapDStatement(session, client, this);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException { //logger.debug("Entered");
-    return new MapDPreparedStatement(sql, session, client);
+    return new MapDPreparedStatement(sql, session, client, this);
   }
 
   @Override
@@ -489,16 +641,18 @@ public class MapDConnection implements java.sql.Connection {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    if (iface.isInstance(metrics)) {
+      return iface.cast(metrics);
+    }
+    throw new SQLException("MapDConnection is not a wrapper for " + iface.getName());
   }
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return iface.isInstance(this) || iface.isInstance(metrics);
   }
 
 }
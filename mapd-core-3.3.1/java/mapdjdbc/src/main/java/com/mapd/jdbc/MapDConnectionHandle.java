@@ -0,0 +1,404 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Logical connection handed out by a MapDPooledConnection.
+ *
+ * Closing it returns the underlying session to its pool; any further use of
+ * the handle fails. Statements made through the handle are closed with it,
+ * so batches they still hold are sent before the next user gets the
+ * session.
+ */
+class MapDConnectionHandle implements Connection {
+
+  private final MapDPooledConnection owner;
+  private MapDConnection physical;
+  // weak, so statements the caller has dropped are not kept for the handle's life
+  private final Set<Statement> statements = Collections.newSetFromMap(new WeakHashMap<Statement, Boolean>());
+
+  MapDConnectionHandle(MapDPooledConnection owner, MapDConnection physical) {
+    this.owner = owner;
+    this.physical = physical;
+  }
+
+  synchronized void invalidate() {
+    physical = null;
+  }
+
+  private <T extends Statement> T track(T stmt) throws SQLException {
+    synchronized (this) {
+      if (physical != null) {
+        statements.add(stmt);
+        return stmt;
+      }
+    }
+    // returned to the pool while the statement was being made
+    stmt.close();
+    throw new SQLException("Connection has been returned to the pool");
+  }
+
+  /**
+   * Closes the statements made through this handle. Called once the handle
+   * has been closed or invalidated, outside the pooled connection's lock
+   * since closing a statement may flush its batch.
+   */
+  void closeStatements() {
+    List<Statement> open;
+    synchronized (this) {
+      open = new ArrayList<Statement>(statements);
+      statements.clear();
+    }
+    for (Statement stmt : open) {
+      try {
+        stmt.close();
+      } catch (SQLException ex) {
+        MapDPooledConnection.logger.warn("Closing statement of pooled connection failed - " + ex.toString());
+      }
+    }
+  }
+
+  private synchronized MapDConnection checkOpen() throws SQLException {
+    if (physical == null) {
+      throw new SQLException("Connection has been returned to the pool");
+    }
+    return physical;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    synchronized (this) {
+      if (physical == null) {
+        return;
+      }
+      physical = null;
+    }
+    closeStatements();
+    owner.handleClosed(this);
+  }
+
+  @Override
+  public synchronized boolean isClosed() throws SQLException {
+    return physical == null || physical.isClosed();
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    try {
+      return checkOpen().isValid(timeout);
+    } catch (SQLException ex) {
+      owner.handleError(ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    return track(checkOpen().createStatement());
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    return track(checkOpen().prepareStatement(sql));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    return track(checkOpen().prepareCall(sql));
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    return checkOpen().nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    checkOpen().setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    return checkOpen().getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    checkOpen().commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    checkOpen().rollback();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    return checkOpen().getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    checkOpen().setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    return checkOpen().isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    checkOpen().setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    return checkOpen().getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    checkOpen().setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    return checkOpen().getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return checkOpen().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkOpen().clearWarnings();
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+    return track(checkOpen().createStatement(resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    return track(checkOpen().prepareStatement(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    return track(checkOpen().prepareCall(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    return checkOpen().getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    checkOpen().setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    checkOpen().setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return checkOpen().getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    return checkOpen().setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    return checkOpen().setSavepoint(name);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    checkOpen().rollback(savepoint);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    checkOpen().releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws
+          SQLException {
+    return track(checkOpen().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+          int resultSetHoldability) throws SQLException {
+    return track(checkOpen().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+          int resultSetHoldability) throws SQLException {
+    return track(checkOpen().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    return track(checkOpen().prepareStatement(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    return track(checkOpen().prepareStatement(sql, columnIndexes));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    return track(checkOpen().prepareStatement(sql, columnNames));
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    return checkOpen().createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    return checkOpen().createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    return checkOpen().createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    return checkOpen().createSQLXML();
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    try {
+      checkOpen().setClientInfo(name, value);
+    } catch (SQLClientInfoException ex) {
+      throw ex;
+    } catch (SQLException ex) {
+      throw new SQLClientInfoException(ex.getMessage(), null, ex);
+    }
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    try {
+      checkOpen().setClientInfo(properties);
+    } catch (SQLClientInfoException ex) {
+      throw ex;
+    } catch (SQLException ex) {
+      throw new SQLClientInfoException(ex.getMessage(), null, ex);
+    }
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    return checkOpen().getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    return checkOpen().getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    return checkOpen().createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    return checkOpen().createStruct(typeName, attributes);
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException {
+    checkOpen().setSchema(schema);
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    return checkOpen().getSchema();
+  }
+
+  @Override
+  public void abort(Executor executor) throws SQLException {
+    checkOpen().abort(executor);
+  }
+
+  @Override
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    checkOpen().setNetworkTimeout(executor, milliseconds);
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    return checkOpen().getNetworkTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return checkOpen().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || checkOpen().isWrapperFor(iface);
+  }
+}
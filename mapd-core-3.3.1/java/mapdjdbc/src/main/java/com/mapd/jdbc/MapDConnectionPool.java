@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps authenticated MapD sessions warm for MapDDataSource.
+ *
+ * Idle sessions are reused most recently used first. A background task evicts
+ * sessions idle for longer than maxIdleTimeMs (down to minIdle) and validates
+ * the rest with get_server_status so broken sessions are dropped before they
+ * are handed out.
+ */
+class MapDConnectionPool implements ConnectionEventListener {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDConnectionPool.class);
+
+  private final String url;
+  private final Properties info;
+  private final int maxPoolSize;
+  private final int minIdle;
+  private final long maxIdleTimeMs;
+  private final long validationIntervalMs;
+  private final long maxWaitMs;
+
+  private final LinkedBlockingDeque<MapDPooledConnection> idle = new LinkedBlockingDeque<MapDPooledConnection>();
+  private final Semaphore permits;
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed = false;
+
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong destroyed = new AtomicLong();
+  private final AtomicLong borrowed = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+  private final AtomicLong validationFailures = new AtomicLong();
+  private final AtomicLong waitTimeMs = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+
+  MapDConnectionPool(String url, Properties info, int maxPoolSize, int minIdle, long maxIdleTimeMs,
+          long validationIntervalMs, long evictionIntervalMs, long maxWaitMs) {
+    this.url = url;
+    this.info = info;
+    this.maxPoolSize = maxPoolSize;
+    this.minIdle = Math.min(minIdle, maxPoolSize);
+    this.maxIdleTimeMs = maxIdleTimeMs;
+    this.validationIntervalMs = validationIntervalMs;
+    this.maxWaitMs = maxWaitMs;
+    permits = new Semaphore(maxPoolSize, true);
+
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "mapd-pool-evictor");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    if (evictionIntervalMs > 0) {
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          evict();
+        }
+      }, evictionIntervalMs, evictionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool has been closed");
+    }
+    long start = System.currentTimeMillis();
+    try {
+      if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+        timeouts.incrementAndGet();
+        throw new SQLException("Timed out after " + maxWaitMs + "ms waiting for a pooled connection, pool size is "
+                + maxPoolSize);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a pooled connection");
+    }
+    waitTimeMs.addAndGet(System.currentTimeMillis() - start);
+
+    try {
+      MapDPooledConnection pc;
+      while ((pc = idle.pollFirst()) != null) {
+        if (!pc.isPhysicallyClosed()
+                && (System.currentTimeMillis() - pc.getLastValidated() < validationIntervalMs || pc.validate())) {
+          break;
+        }
+        validationFailures.incrementAndGet();
+        destroy(pc);
+      }
+      if (pc == null) {
+        pc = create();
+      }
+      Connection con = pc.getConnection();
+      active.incrementAndGet();
+      borrowed.incrementAndGet();
+      return con;
+    } catch (SQLException ex) {
+      permits.release();
+      throw ex;
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  private MapDPooledConnection create() throws SQLException {
+    MapDPooledConnection pc = new MapDPooledConnection(new MapDConnection(url, info));
+    pc.addConnectionEventListener(this);
+    created.incrementAndGet();
+    logger.debug("Created pooled session, total created " + created.get());
+    return pc;
+  }
+
+  private void destroy(MapDPooledConnection pc) {
+    destroyed.incrementAndGet();
+    try {
+      pc.close();
+    } catch (SQLException ex) {
+      logger.debug("Error closing pooled session - " + ex.toString());
+    }
+  }
+
+  @Override
+  public void connectionClosed(ConnectionEvent event) {
+    MapDPooledConnection pc = (MapDPooledConnection) event.getSource();
+    active.decrementAndGet();
+    if (closed || pc.isPhysicallyClosed()) {
+      destroy(pc);
+    } else {
+      idle.offerFirst(pc);
+    }
+    permits.release();
+  }
+
+  @Override
+  public void connectionErrorOccurred(ConnectionEvent event) {
+    // the handle is still checked out; make sure it is not reused once returned
+    MapDPooledConnection pc = (MapDPooledConnection) event.getSource();
+    logger.debug("Pooled session reported error - " + event.getSQLException());
+    try {
+      pc.getPhysicalConnection().close();
+    } catch (SQLException ex) {
+      logger.debug("Error closing broken session - " + ex.toString());
+    }
+  }
+
+  void evict() {
+    long now = System.currentTimeMillis();
+    // oldest sessions sit at the tail of the deque
+    Iterator<MapDPooledConnection> it = idle.descendingIterator();
+    while (it.hasNext()) {
+      MapDPooledConnection pc = it.next();
+      boolean expired = maxIdleTimeMs > 0 && now - pc.getLastUsed() > maxIdleTimeMs && idle.size() > minIdle;
+      if (expired) {
+        if (idle.remove(pc)) {
+          evicted.incrementAndGet();
+          destroy(pc);
+        }
+      } else if (now - pc.getLastValidated() >= validationIntervalMs) {
+        // take it out while validating so nobody borrows it half checked
+        if (idle.remove(pc)) {
+          if (pc.validate()) {
+            idle.offerLast(pc);
+          } else {
+            validationFailures.incrementAndGet();
+            destroy(pc);
+          }
+        }
+      }
+    }
+    fill();
+  }
+
+  private void fill() {
+    while (!closed && idle.size() < minIdle && idle.size() + active.get() < maxPoolSize) {
+      try {
+        idle.offerLast(create());
+      } catch (SQLException ex) {
+        logger.warn("Could not create idle pooled session - " + ex.toString());
+        return;
+      }
+    }
+  }
+
+  void close() {
+    closed = true;
+    evictor.shutdownNow();
+    MapDPooledConnection pc;
+    while ((pc = idle.pollFirst()) != null) {
+      destroy(pc);
+    }
+  }
+
+  int getActiveCount() {
+    return active.get();
+  }
+
+  int getIdleCount() {
+    return idle.size();
+  }
+
+  long getCreatedCount() {
+    return created.get();
+  }
+
+  long getDestroyedCount() {
+    return destroyed.get();
+  }
+
+  long getBorrowCount() {
+    return borrowed.get();
+  }
+
+  long getEvictedCount() {
+    return evicted.get();
+  }
+
+  long getValidationFailureCount() {
+    return validationFailures.get();
+  }
+
+  long getWaitTimeMs() {
+    return waitTimeMs.get();
+  }
+
+  long getTimeoutCount() {
+    return timeouts.get();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Pass through transport that counts bytes and notes when the request was
+ * flushed and when the first reply byte arrived. It sits directly on the
+ * socket (or HTTP client), so compressed transports are counted compressed.
+ * Only used by one call at a time, see MapDClientPool.
+ */
+class MapDCountingTransport extends TTransport {
+
+  private final TTransport inner;
+  private long bytesWritten = 0;
+  private long bytesRead = 0;
+  private long flushedAt = 0;
+  private long firstReadAt = 0;
+
+  MapDCountingTransport(TTransport inner) {
+    this.inner = inner;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return inner.isOpen();
+  }
+
+  @Override
+  public void open() throws TTransportException {
+    inner.open();
+  }
+
+  @Override
+  public void close() {
+    inner.close();
+  }
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws TTransportException {
+    int n = inner.read(buf, off, len);
+    if (n > 0) {
+      if (firstReadAt == 0) {
+        firstReadAt = System.nanoTime();
+      }
+      bytesRead += n;
+    }
+    return n;
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) throws TTransportException {
+    inner.write(buf, off, len);
+    bytesWritten += len;
+  }
+
+  @Override
+  public void flush() throws TTransportException {
+    // THttpClient does the whole round trip inside flush
+    flushedAt = System.nanoTime();
+    firstReadAt = 0;
+    inner.flush();
+  }
+
+  /**
+   * Clears the counters at the start of a call.
+   */
+  void reset() {
+    bytesWritten = 0;
+    bytesRead = 0;
+    flushedAt = 0;
+    firstReadAt = 0;
+  }
+
+  long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Time between the request going out and the reply starting, or -1.
+   */
+  long getWaitNanos() {
+    return flushedAt == 0 || firstReadAt == 0 ? -1 : firstReadAt - flushedAt;
+  }
+
+  long getFirstReadAt() {
+    return firstReadAt;
+  }
+}
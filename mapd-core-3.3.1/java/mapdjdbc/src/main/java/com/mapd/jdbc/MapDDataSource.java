@@ -0,0 +1,294 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DataSource that hands out pooled, already authenticated MapD sessions.
+ *
+ * Configure either a full url ("jdbc:mapd:host:port:db[:http[:binary]|framed|zlib]") or
+ * serverName, portNumber and databaseName, plus user and password. The pool
+ * is created on the first getConnection call; pool settings changed after
+ * that are ignored until close() is called.
+ *
+ * getPooledConnection is provided for application servers that run their own
+ * pool on top of a ConnectionPoolDataSource; it always opens a new session.
+ */
+public class MapDDataSource implements DataSource, ConnectionPoolDataSource {
+
+  final static org.slf4j.Logger logger = LoggerFactory.getLogger(MapDDataSource.class);
+
+  private String url = null;
+  private String serverName = "localhost";
+  private int portNumber = 9091;
+  private String databaseName = "mapd";
+  private String user = null;
+  private String password = null;
+  private Properties connectionProperties = new Properties();
+
+  private int maxPoolSize = 10;
+  private int minIdle = 0;
+  private long maxIdleTimeMs = 10 * 60 * 1000L;
+  private long validationIntervalMs = 30 * 1000L;
+  private long evictionIntervalMs = 60 * 1000L;
+  private int loginTimeout = 30;
+  private PrintWriter logWriter = null;
+
+  private MapDConnectionPool pool = null;
+
+  public MapDDataSource() {
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return getPool().getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    if (eq(username, user) && eq(password, this.password)) {
+      return getConnection();
+    }
+    // different credentials can not share the pooled sessions
+    return new MapDConnection(getUrl(), buildProperties(username, password));
+  }
+
+  @Override
+  public PooledConnection getPooledConnection() throws SQLException {
+    return getPooledConnection(user, password);
+  }
+
+  @Override
+  public PooledConnection getPooledConnection(String username, String password) throws SQLException {
+    return new MapDPooledConnection(new MapDConnection(getUrl(), buildProperties(username, password)));
+  }
+
+  /**
+   * Closes all idle pooled sessions; sessions currently in use are closed as
+   * they are returned.
+   */
+  public synchronized void close() {
+    if (pool != null) {
+      pool.close();
+      pool = null;
+    }
+  }
+
+  private synchronized MapDConnectionPool getPool() {
+    if (pool == null) {
+      pool = new MapDConnectionPool(getUrl(), buildProperties(user, password), maxPoolSize, minIdle, maxIdleTimeMs,
+              validationIntervalMs, evictionIntervalMs, loginTimeout * 1000L);
+      logger.debug("Created connection pool for " + getUrl() + " max size " + maxPoolSize);
+    }
+    return pool;
+  }
+
+  private Properties buildProperties(String username, String password) {
+    Properties info = new Properties();
+    info.putAll(connectionProperties);
+    if (username != null) {
+      info.setProperty("user", username);
+    }
+    if (password != null) {
+      info.setProperty("password", password);
+    }
+    return info;
+  }
+
+  private static boolean eq(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  public String getUrl() {
+    if (url != null) {
+      return url;
+    }
+    return MapDDriver.PREFIX + serverName + ":" + portNumber + ":" + databaseName;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getServerName() {
+    return serverName;
+  }
+
+  public void setServerName(String serverName) {
+    this.serverName = serverName;
+  }
+
+  public int getPortNumber() {
+    return portNumber;
+  }
+
+  public void setPortNumber(int portNumber) {
+    this.portNumber = portNumber;
+  }
+
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  public void setDatabaseName(String databaseName) {
+    this.databaseName = databaseName;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void setUser(String user) {
+    this.user = user;
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  public Properties getConnectionProperties() {
+    return connectionProperties;
+  }
+
+  public void setConnectionProperties(Properties connectionProperties) {
+    this.connectionProperties = connectionProperties;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  public void setMaxPoolSize(int maxPoolSize) {
+    this.maxPoolSize = maxPoolSize;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  public long getMaxIdleTimeMs() {
+    return maxIdleTimeMs;
+  }
+
+  public void setMaxIdleTimeMs(long maxIdleTimeMs) {
+    this.maxIdleTimeMs = maxIdleTimeMs;
+  }
+
+  public long getValidationIntervalMs() {
+    return validationIntervalMs;
+  }
+
+  public void setValidationIntervalMs(long validationIntervalMs) {
+    this.validationIntervalMs = validationIntervalMs;
+  }
+
+  public long getEvictionIntervalMs() {
+    return evictionIntervalMs;
+  }
+
+  public void setEvictionIntervalMs(long evictionIntervalMs) {
+    this.evictionIntervalMs = evictionIntervalMs;
+  }
+
+  // pool metrics
+  public synchronized int getActiveConnections() {
+    return pool == null ? 0 : pool.getActiveCount();
+  }
+
+  public synchronized int getIdleConnections() {
+    return pool == null ? 0 : pool.getIdleCount();
+  }
+
+  public synchronized long getConnectionsCreated() {
+    return pool == null ? 0 : pool.getCreatedCount();
+  }
+
+  public synchronized long getConnectionsDestroyed() {
+    return pool == null ? 0 : pool.getDestroyedCount();
+  }
+
+  public synchronized long getConnectionsBorrowed() {
+    return pool == null ? 0 : pool.getBorrowCount();
+  }
+
+  public synchronized long getConnectionsEvicted() {
+    return pool == null ? 0 : pool.getEvictedCount();
+  }
+
+  public synchronized long getValidationFailures() {
+    return pool == null ? 0 : pool.getValidationFailureCount();
+  }
+
+  public synchronized long getBorrowWaitTimeMs() {
+    return pool == null ? 0 : pool.getWaitTimeMs();
+  }
+
+  public synchronized long getBorrowTimeouts() {
+    return pool == null ? 0 : pool.getTimeoutCount();
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return logWriter;
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    logWriter = out;
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    loginTimeout = seconds;
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return loginTimeout;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException("MapD driver logs through slf4j");
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("MapDDataSource is not a wrapper for " + iface.getName());
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this);
+  }
+}
@@ -711,12 +711,8 @@ SQLException - if a database access error occurs
   public ResultSet getTables(String catalog, String schemaPattern, String tableNamePattern, String[] types) throws
           SQLException { //logger.debug("Entered");
 
-    List<String> tables;
-    try {
-      tables = con.client.get_tables(con.session);
-    } catch (TException ex) {
-      throw new SQLException("get_tables failed " + ex.toString());
-    }
+    MapDLikePattern tablePattern = MapDLikePattern.compile(tableNamePattern);
+    List<String> tables = con.metadataCache.getTables(con.session);
 
     TTypeInfo strTTI = new TTypeInfo(TDatumType.STR, TEncodingType.NONE, false, false, 0, 0, 0);
     TColumnType columns[] = {
@@ -746,6 +742,9 @@ SQLException - if a database access error occurs
 
     // Now add some actual details for table name
     for (String x : tables) {
+      if (!tablePattern.matches(x)) {
+        continue;
+      }
       dataMap.get("TABLE_NAME").add(x);
       nullMap.get("TABLE_NAME").add(false);
       nullMap.get("TABLE_SCHEM").add(true);
@@ -941,10 +940,8 @@ SQLException - if a database access error occurs
   public ResultSet getColumns(String catalog, String schemaPattern, String tableNamePattern, String columnNamePattern)
           throws SQLException { //logger.debug("Entered");
     logger.info("TablePattern " + tableNamePattern + " columnNamePattern " + columnNamePattern);
-    String modifiedTablePattern = tableNamePattern.replaceAll("%", ".*");
-    String modifiedColumnPattern = (columnNamePattern == null) ? null : columnNamePattern.replaceAll("%", ".*");
-
-    logger.info("TablePattern " + tableNamePattern + " modifiedColumnPattern " + modifiedColumnPattern);
+    MapDLikePattern tablePattern = MapDLikePattern.compile(tableNamePattern);
+    MapDLikePattern columnPattern = MapDLikePattern.compile(columnNamePattern);
 
     // declare the columns in the result set
     TTypeInfo strTTI = new TTypeInfo(TDatumType.STR, TEncodingType.NONE, false, false, 0, 0, 0);
@@ -988,60 +985,58 @@ SQLException - if a database access error occurs
     }
 
     // Now add some actual details for table name
-    List<String> tables;
-    try {
-      tables = con.client.get_tables(con.session);
-
-      for (String tableName : tables) {
-        // check if the table matches the input pattern
-        if (tableNamePattern == null || tableNamePattern.equals(tableName)) {
-
-          // grab meta data for table
-          TTableDetails tableDetails = con.client.get_table_details(con.session, tableName);
-
-          int ordinal = 0;
-          // iterate through the columns
-          for (TColumnType value : tableDetails.row_desc) {
-
-            ordinal++;
-            if (columnNamePattern == null || value.col_name.matches(modifiedColumnPattern)) {
-              dataMap.get("TABLE_CAT").setNull(true);
-              dataMap.get("TABLE_SCHEM").setNull(true);
-              dataMap.get("TABLE_NAME").add(tableName);
-              dataMap.get("COLUMN_NAME").add(value.col_name);
-              dataMap.get("DATA_TYPE").add(MapDType.toJava(value.col_type.type));
-              dataMap.get("TYPE_NAME").add((value.col_type.type.name() + (value.col_type.is_array ? "[]" : "")));
-              if (value.col_type.type == TDatumType.DECIMAL)
-                dataMap.get("COLUMN_SIZE").add(value.col_type.precision);
-              else
-                dataMap.get("COLUMN_SIZE").add(100);
-              dataMap.get("BUFFER_LENGTH").setNull(true);
-              if (value.col_type.type == TDatumType.DECIMAL)
-                dataMap.get("DECIMAL_DIGITS").add(value.col_type.scale);
-              else
-                 dataMap.get("DECIMAL_DIGITS").setNull(true);
-              dataMap.get("NUM_PREC_RADIX").add(10);
-              dataMap.get("NULLABLE").add(value.col_type.nullable ? DatabaseMetaData.columnNullable
-                      : DatabaseMetaData.columnNoNulls);
-              dataMap.get("REMARKS").add(" ");
-              dataMap.get("COLUMN_DEF").setNull(true);
-              dataMap.get("SQL_DATA_TYPE").add(0);
-              dataMap.get("SQL_DATETIME_SUB").setNull(true);
-              dataMap.get("CHAR_OCTET_LENGTH").add(0);
-              dataMap.get("ORDINAL_POSITION").add(ordinal);
-              dataMap.get("IS_NULLABLE").add(value.col_type.nullable ? "YES" : "NO");
-              dataMap.get("SCOPE_CATALOG").setNull(true);
-              dataMap.get("SCOPE_SCHEMA").setNull(true);
-              dataMap.get("SCOPE_TABLE").setNull(true);
-              dataMap.get("SOURCE_DATA_TYPE").add(MapDType.toJava(value.col_type.type));
-              dataMap.get("IS_AUTOINCREMENT").add("NO");
-              dataMap.get("IS_GENERATEDCOLUMN").add("NO");
-            }
-          }
+    List<String> tables = new ArrayList<String>();
+    for (String tableName : con.metadataCache.getTables(con.session)) {
+      // check if the table matches the input pattern
+      if (tablePattern.matches(tableName)) {
+        tables.add(tableName);
+      }
+    }
+
+    // grab meta data for all matching tables at once
+    Map<String, TTableDetails> details = con.metadataCache.getTableDetails(con.session, tables);
+    for (Map.Entry<String, TTableDetails> table : details.entrySet()) {
+      String tableName = table.getKey();
+      TTableDetails tableDetails = table.getValue();
+      int ordinal = 0;
+      // iterate through the columns
+      for (TColumnType value : tableDetails.row_desc) {
+
+        ordinal++;
+        if (columnPattern.matches(value.col_name)) {
+          dataMap.get("TABLE_CAT").setNull(true);
+          dataMap.get("TABLE_SCHEM").setNull(true);
+          dataMap.get("TABLE_NAME").add(tableName);
+          dataMap.get("COLUMN_NAME").add(value.col_name);
+          dataMap.get("DATA_TYPE").add(MapDType.toJava(value.col_type.type));
+          dataMap.get("TYPE_NAME").add((value.col_type.type.name() + (value.col_type.is_array ? "[]" : "")));
+          if (value.col_type.type == TDatumType.DECIMAL)
+            dataMap.get("COLUMN_SIZE").add(value.col_type.precision);
+          else
+            dataMap.get("COLUMN_SIZE").add(100);
+          dataMap.get("BUFFER_LENGTH").setNull(true);
+          if (value.col_type.type == TDatumType.DECIMAL)
+            dataMap.get("DECIMAL_DIGITS").add(value.col_type.scale);
+          else
+             dataMap.get("DECIMAL_DIGITS").setNull(true);
+          dataMap.get("NUM_PREC_RADIX").add(10);
+          dataMap.get("NULLABLE").add(value.col_type.nullable ? DatabaseMetaData.columnNullable
+                  : DatabaseMetaData.columnNoNulls);
+          dataMap.get("REMARKS").add(" ");
+          dataMap.get("COLUMN_DEF").setNull(true);
+          dataMap.get("SQL_DATA_TYPE").add(0);
+          dataMap.get("SQL_DATETIME_SUB").setNull(true);
+          dataMap.get("CHAR_OCTET_LENGTH").add(0);
+          dataMap.get("ORDINAL_POSITION").add(ordinal);
+          dataMap.get("IS_NULLABLE").add(value.col_type.nullable ? "YES" : "NO");
+          dataMap.get("SCOPE_CATALOG").setNull(true);
+          dataMap.get("SCOPE_SCHEMA").setNull(true);
+          dataMap.get("SCOPE_TABLE").setNull(true);
+          dataMap.get("SOURCE_DATA_TYPE").add(MapDType.toJava(value.col_type.type));
+          dataMap.get("IS_AUTOINCREMENT").add("NO");
+          dataMap.get("IS_GENERATEDCOLUMN").add("NO");
         }
       }
-    } catch (TException ex) {
-      throw new SQLException("get_tables failed " + ex.toString());
     }
 
     List<TColumn> columnsList = new ArrayList(columns.length);
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scanner based version of the MapDStatement.fnReplace regex rewrite.
+ *
+ * QUARTER(, DAYOFYEAR(, DAYOFWEEK( and WEEK( calls are rewritten to EXTRACT in
+ * one left to right pass. The date truncation expansions BI tools generate
+ * are matched as fixed templates of literal text and lazy holes, found with
+ * plain string search instead of backtracking over the whole query. Output
+ * is identical to the regex version; the rare nested calls whose result
+ * depends on the regex pass order are handed to it unchanged. Rewritten
+ * queries are kept in an LRU keyed on the input text.
+ */
+class MapDEscapeRewriter {
+
+  private static final int CACHE_SIZE = 1024;
+  private static final int MAX_CACHED_LENGTH = 64 * 1024;
+
+  private static final Map<String, String> cache = new LinkedHashMap<String, String>(256, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private static final String[] FUNCTIONS = {"QUARTER(", "DAYOFYEAR(", "DAYOFWEEK(", "WEEK("};
+  private static final String[] EXTRACTS = {" EXTRACT(QUARTER FROM ", " EXTRACT(DOY FROM ", " EXTRACT(ISODOW FROM ",
+    " EXTRACT(WEEK FROM "};
+
+  // every truncation template contains both of these
+  private static final String TRUNC_MARKER_1 = "CAST(";
+  private static final String TRUNC_MARKER_2 = " * INTERVAL '1' ";
+
+  // same order as the regex passes in MapDStatement.fnReplaceRegex
+  private static final Template[] TRUNCS = {
+    new Template(MapDStatement.QUARTER_TRUNC_REGEX, " DATE_TRUNC(QUARTER, ", ")"),
+    new Template(MapDStatement.YEAR_TRUNC_REGEX, " DATE_TRUNC(YEAR, ", ")"),
+    new Template(MapDStatement.SECOND_TRUNC_REGEX, " DATE_TRUNC(SECOND, ", ")"),
+    new Template(MapDStatement.QUARTER1_TRUNC_REGEX, " DATE_TRUNC(QUARTER, ", ")"),
+    new Template(MapDStatement.MONTH_TRUNC_REGEX, " DATE_TRUNC(MONTH, ", ")"),
+    new Template(MapDStatement.MINUTE_TRUNC_REGEX, " DATE_TRUNC(MINUTE, ", ")"),
+    new Template(MapDStatement.YEAR1_TRUNC_REGEX, " DATE_TRUNC(YEAR, ", ")"),
+    new Template(MapDStatement.WEEK_TRUNC_REGEX, " DATE_TRUNC(WEEK, ", ")")
+  };
+
+  static String rewrite(String sql) {
+    if (!mayNeedRewrite(sql)) {
+      return sql;
+    }
+    boolean cacheable = sql.length() <= MAX_CACHED_LENGTH;
+    if (cacheable) {
+      synchronized (cache) {
+        String cached = cache.get(sql);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+    String out = rewriteFunctions(sql);
+    if (out == null) {
+      out = MapDStatement.fnReplaceRegex(sql);
+    } else if (indexOfIgnoreCase(out, TRUNC_MARKER_1, 0) >= 0 && indexOfIgnoreCase(out, TRUNC_MARKER_2, 0) >= 0) {
+      for (Template trunc : TRUNCS) {
+        out = trunc.replaceAll(out);
+      }
+    }
+    if (cacheable) {
+      synchronized (cache) {
+        cache.put(sql, out);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Cheap check whether any of the rewrites could apply.
+   */
+  private static boolean mayNeedRewrite(String sql) {
+    int len = sql.length();
+    for (int i = 0; i < len; i++) {
+      char c = sql.charAt(i);
+      if (c == '(' && i >= 4) {
+        char p = (char) (sql.charAt(i - 1) | 0x20);
+        // QUARTER( DAYOFYEAR( DAYOFWEEK( WEEK( and CAST( all end in r, k or t
+        if (p == 'r' || p == 'k' || p == 't') {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * One pass equivalent of the QUARTER/DAYOFYEAR/DAYOFWEEK/WEEK regex loops.
+   * Returns null when a call only became matchable because of an earlier
+   * rewrite, as the regex result then depends on pass order.
+   */
+  private static String rewriteFunctions(String sql) {
+    int len = sql.length();
+    StringBuilder out = null;
+    int copied = 0;
+    // end of the last replacement in sql, a match starting right there is chained
+    int lastEnd = -1;
+    for (int i = 1; i < len; i++) {
+      // right after a replacement the preceding char is the emitted space
+      if (i != lastEnd && !isRegexSpace(sql.charAt(i - 1))) {
+        continue;
+      }
+      for (int f = 0; f < FUNCTIONS.length; f++) {
+        String fn = FUNCTIONS[f];
+        if (regionMatchesAscii(sql, i, fn)) {
+          if (i == lastEnd) {
+            return null;
+          }
+          if (out == null) {
+            out = new StringBuilder(len + 64);
+          }
+          out.append(sql, copied, i - 1).append(EXTRACTS[f]);
+          copied = i + fn.length();
+          lastEnd = copied;
+          i = copied - 1;
+          break;
+        }
+      }
+    }
+    if (out == null) {
+      return sql;
+    }
+    out.append(sql, copied, len);
+    return out.toString();
+  }
+
+  // java.util.regex \s without UNICODE_CHARACTER_CLASS
+  private static boolean isRegexSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static char lowerAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+  }
+
+  /**
+   * ASCII case insensitive comparison, matching Pattern.CASE_INSENSITIVE
+   * without UNICODE_CASE.
+   */
+  static boolean regionMatchesAscii(String s, int offset, String literal) {
+    int n = literal.length();
+    if (offset < 0 || offset + n > s.length()) {
+      return false;
+    }
+    for (int k = 0; k < n; k++) {
+      if (lowerAscii(s.charAt(offset + k)) != lowerAscii(literal.charAt(k))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static int indexOfIgnoreCase(String s, String literal, int from) {
+    int last = s.length() - literal.length();
+    char first = lowerAscii(literal.charAt(0));
+    for (int i = Math.max(from, 0); i <= last; i++) {
+      if (lowerAscii(s.charAt(i)) == first && regionMatchesAscii(s, i, literal)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * One truncation regex as literal segments separated by holes. Holes are
+   * either the captured column, ([^\(]*?), or a skipped .*? expression; both
+   * are lazy, so candidate ends are tried shortest first as the regex engine
+   * would.
+   */
+  static class Template {
+
+    private static final String CAPTURE = "([^\\(]*?)";
+    private static final String ANY = ".*?";
+
+    // literals[0] hole[0] literals[1] hole[1] ... literals[n]
+    private final String[] literals;
+    private final boolean[] holeIsCapture;
+    private final String prefix;
+    private final String suffix;
+
+    Template(String regex, String prefix, String suffix) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+      List<String> lits = new ArrayList<String>();
+      List<Boolean> holes = new ArrayList<Boolean>();
+      StringBuilder lit = new StringBuilder();
+      int i = 0;
+      while (i < regex.length()) {
+        if (regex.startsWith(CAPTURE, i)) {
+          lits.add(lit.toString());
+          lit.setLength(0);
+          holes.add(Boolean.TRUE);
+          i += CAPTURE.length();
+        } else if (regex.startsWith(ANY, i)) {
+          lits.add(lit.toString());
+          lit.setLength(0);
+          holes.add(Boolean.FALSE);
+          i += ANY.length();
+        } else if (regex.charAt(i) == '\\') {
+          lit.append(regex.charAt(i + 1));
+          i += 2;
+        } else {
+          lit.append(regex.charAt(i));
+          i++;
+        }
+      }
+      lits.add(lit.toString());
+      literals = lits.toArray(new String[lits.size()]);
+      holeIsCapture = new boolean[holes.size()];
+      for (int h = 0; h < holeIsCapture.length; h++) {
+        holeIsCapture[h] = holes.get(h);
+      }
+    }
+
+    String replaceAll(String text) {
+      StringBuilder out = null;
+      int copied = 0;
+      int[] capture = new int[2];
+      int pos = indexOfIgnoreCase(text, literals[0], 0);
+      while (pos >= 0) {
+        int end = match(text, pos + literals[0].length(), 0, capture);
+        if (end < 0) {
+          pos = indexOfIgnoreCase(text, literals[0], pos + 1);
+          continue;
+        }
+        if (out == null) {
+          out = new StringBuilder(text.length());
+        }
+        out.append(text, copied, pos).append(prefix).append(text, capture[0], capture[1]).append(suffix);
+        copied = end;
+        pos = indexOfIgnoreCase(text, literals[0], end);
+      }
+      if (out == null) {
+        return text;
+      }
+      out.append(text, copied, text.length());
+      return out.toString();
+    }
+
+    /**
+     * Matches hole h and everything after it starting at pos, returning the
+     * end of the match or -1.
+     */
+    private int match(String text, int pos, int h, int[] capture) {
+      if (h == holeIsCapture.length) {
+        return pos;
+      }
+      String next = literals[h + 1];
+      int candidate = indexOfIgnoreCase(text, next, pos);
+      int limit = text.length();
+      if (holeIsCapture[h]) {
+        int paren = text.indexOf('(', pos);
+        if (paren >= 0) {
+          limit = paren;
+        }
+      }
+      while (candidate >= 0 && candidate <= limit) {
+        int end = match(text, candidate + next.length(), h + 1, capture);
+        if (end >= 0) {
+          if (holeIsCapture[h]) {
+            capture[0] = pos;
+            capture[1] = candidate;
+          }
+          return end;
+        }
+        candidate = indexOfIgnoreCase(text, next, candidate + 1);
+      }
+      return -1;
+    }
+  }
+}
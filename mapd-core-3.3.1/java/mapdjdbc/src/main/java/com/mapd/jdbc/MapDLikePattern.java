@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.util.regex.Pattern;
+
+/**
+ * A DatabaseMetaData search pattern compiled once per call.
+ *
+ * '%' matches any run of characters, '_' any single character and '\'
+ * (getSearchStringEscape) makes the next character literal. Patterns without
+ * wildcards are compared with equals, and null or "%" match everything
+ * without looking at the name.
+ */
+class MapDLikePattern {
+
+  private static final MapDLikePattern ANY = new MapDLikePattern(null, null);
+
+  private final String literal;
+  private final Pattern regex;
+
+  private MapDLikePattern(String literal, Pattern regex) {
+    this.literal = literal;
+    this.regex = regex;
+  }
+
+  static MapDLikePattern compile(String pattern) {
+    if (pattern == null || pattern.equals("%")) {
+      return ANY;
+    }
+    StringBuilder regex = new StringBuilder(pattern.length() + 16);
+    StringBuilder literal = new StringBuilder(pattern.length());
+    boolean wildcard = false;
+    int len = pattern.length();
+    for (int i = 0; i < len; i++) {
+      char c = pattern.charAt(i);
+      if (c == '\\' && i + 1 < len) {
+        literal.append(pattern.charAt(++i));
+      } else if (c == '%' || c == '_') {
+        wildcard = true;
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '%' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (!wildcard) {
+      return new MapDLikePattern(literal.toString(), null);
+    }
+    if (literal.length() > 0) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+    return new MapDLikePattern(null, Pattern.compile(regex.toString(), Pattern.DOTALL));
+  }
+
+  boolean matchesAll() {
+    return this == ANY;
+  }
+
+  boolean matches(String name) {
+    if (this == ANY) {
+      return true;
+    }
+    if (literal != null) {
+      return literal.equals(name);
+    }
+    return regex.matcher(name).matches();
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TTableDetails;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per connection cache of the table list and table details used by
+ * MapDDatabaseMetaData.
+ *
+ * Entries expire after ttlMs and are dropped as soon as a statement on the
+ * connection runs DDL, by bumping a local epoch. Details that are missing are
+ * fetched in parallel over the connection's channels, so getColumns over a
+ * large catalog costs a few round trip times instead of one per table. DDL
+ * from other clients is only picked up once the TTL runs out.
+ */
+class MapDMetadataCache {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDMetadataCache.class);
+
+  private static ExecutorService prefetchExecutor = null;
+
+  private static synchronized ExecutorService getPrefetchExecutor() {
+    if (prefetchExecutor == null) {
+      prefetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "mapd-metadata-prefetch");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return prefetchExecutor;
+  }
+
+  private static class Entry<T> {
+
+    final T value;
+    final long epoch;
+    final long loadedAt;
+
+    Entry(T value, long epoch) {
+      this.value = value;
+      this.epoch = epoch;
+      this.loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  private final MapD.Iface client;
+  private final long ttlMs;
+  private final int prefetchThreads;
+  private final AtomicLong epoch = new AtomicLong();
+  private volatile Entry<List<String>> tables = null;
+  private final ConcurrentHashMap<String, Entry<TTableDetails>> details
+          = new ConcurrentHashMap<String, Entry<TTableDetails>>();
+
+  MapDMetadataCache(MapD.Iface client, long ttlMs, int prefetchThreads) {
+    this.client = client;
+    this.ttlMs = ttlMs;
+    this.prefetchThreads = Math.max(1, prefetchThreads);
+  }
+
+  /**
+   * True for statements that can change the table list or a table's columns.
+   */
+  static boolean isSchemaChange(String sql) {
+    int i = 0;
+    int len = sql.length();
+    while (i < len && Character.isWhitespace(sql.charAt(i))) {
+      i++;
+    }
+    return sql.regionMatches(true, i, "CREATE", 0, 6) || sql.regionMatches(true, i, "DROP", 0, 4)
+            || sql.regionMatches(true, i, "ALTER", 0, 5) || sql.regionMatches(true, i, "RENAME", 0, 6);
+  }
+
+  void invalidate() {
+    epoch.incrementAndGet();
+    tables = null;
+    details.clear();
+  }
+
+  private boolean isFresh(Entry<?> entry) {
+    return entry != null && entry.epoch == epoch.get()
+            && System.currentTimeMillis() - entry.loadedAt < ttlMs;
+  }
+
+  List<String> getTables(String session) throws SQLException {
+    Entry<List<String>> cached = tables;
+    if (isFresh(cached)) {
+      return cached.value;
+    }
+    long loadEpoch = epoch.get();
+    List<String> list;
+    try {
+      list = Collections.unmodifiableList(new ArrayList<String>(client.get_tables(session)));
+    } catch (TException ex) {
+      throw new SQLException("get_tables failed " + ex.toString());
+    }
+    if (ttlMs > 0) {
+      tables = new Entry<List<String>>(list, loadEpoch);
+    }
+    return list;
+  }
+
+  /**
+   * Details for each named table, in the order given. Tables dropped since
+   * the name was listed are left out.
+   */
+  Map<String, TTableDetails> getTableDetails(final String session, List<String> names) throws SQLException {
+    Map<String, TTableDetails> result = new LinkedHashMap<String, TTableDetails>(names.size() * 2);
+    List<String> missing = new ArrayList<String>();
+    for (String name : names) {
+      Entry<TTableDetails> cached = details.get(name);
+      if (isFresh(cached)) {
+        result.put(name, cached.value);
+      } else {
+        result.put(name, null);
+        missing.add(name);
+      }
+    }
+    if (missing.isEmpty()) {
+      return result;
+    }
+
+    long loadEpoch = epoch.get();
+    Map<String, TTableDetails> fetched = fetch(session, missing);
+    for (String name : missing) {
+      TTableDetails tableDetails = fetched.get(name);
+      if (tableDetails == null) {
+        result.remove(name);
+      } else {
+        result.put(name, tableDetails);
+        if (ttlMs > 0) {
+          details.put(name, new Entry<TTableDetails>(tableDetails, loadEpoch));
+        }
+      }
+    }
+    return result;
+  }
+
+  private Map<String, TTableDetails> fetch(final String session, List<String> names) throws SQLException {
+    final Map<String, TTableDetails> fetched = new ConcurrentHashMap<String, TTableDetails>(names.size() * 2);
+    final ConcurrentLinkedQueue<String> work = new ConcurrentLinkedQueue<String>(names);
+    int workers = Math.min(prefetchThreads, names.size());
+    if (workers == 1) {
+      fetchAll(session, work, fetched);
+      return fetched;
+    }
+
+    logger.debug("Fetching details for " + names.size() + " tables on " + workers + " threads");
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+    ExecutorService executor = getPrefetchExecutor();
+    for (int i = 0; i < workers; i++) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws SQLException {
+          fetchAll(session, work, fetched);
+          return null;
+        }
+      }));
+    }
+    SQLException failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException ex) {
+        // stop the other workers early
+        work.clear();
+        if (failure == null) {
+          Throwable cause = ex.getCause();
+          failure = cause instanceof SQLException ? (SQLException) cause
+                  : new SQLException("get_table_details failed " + cause.toString());
+        }
+      } catch (InterruptedException ex) {
+        work.clear();
+        Thread.currentThread().interrupt();
+        throw new SQLException("get_table_details interrupted");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return fetched;
+  }
+
+  private void fetchAll(String session, ConcurrentLinkedQueue<String> work, Map<String, TTableDetails> fetched)
+          throws SQLException {
+    String name;
+    while ((name = work.poll()) != null) {
+      try {
+        fetched.put(name, client.get_table_details(session, name));
+      } catch (TMapDException ex) {
+        logger.debug("Skipping table " + name + " - " + ex.getError_msg());
+      } catch (TException ex) {
+        throw new SQLException("get_table_details failed " + ex.toString());
+      }
+    }
+  }
+}
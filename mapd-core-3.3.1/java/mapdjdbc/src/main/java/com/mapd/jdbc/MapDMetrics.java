@@ -0,0 +1,395 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query, transfer and load counters for one connection or the whole driver.
+ *
+ * A query's wall time is split into phases: server execution
+ * (execution_time_ms as reported by the server), network (waiting for the
+ * first reply byte, less the server's total_time_ms), receive (reading and
+ * decoding the reply) and iteration (from the result set being handed out
+ * until next() runs off the end or it is closed). Every connection feeds the
+ * driver wide instance as well.
+ *
+ * Reach a connection's metrics with
+ * conn.unwrap(MapDConnection.class).getMetrics(), or conn.unwrap(MapDMetrics.class);
+ * the driver wide ones with getDriverMetrics(). Both are registered as MBeans
+ * under com.mapd.jdbc when the platform MBean server allows it.
+ */
+public class MapDMetrics implements MapDMetricsMBean {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDMetrics.class);
+
+  /**
+   * Latency histogram with power of two microsecond buckets; percentiles are
+   * interpolated within a bucket.
+   */
+  public static class Histogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Adds one sample.
+     */
+    public void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      sumMicros.addAndGet(micros);
+      long max = maxMicros.get();
+      while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+        max = maxMicros.get();
+      }
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public double getMeanMs() {
+      long n = count.get();
+      return n == 0 ? 0 : sumMicros.get() / 1000.0 / n;
+    }
+
+    public double getMaxMs() {
+      return maxMicros.get() / 1000.0;
+    }
+
+    public double getTotalMs() {
+      return sumMicros.get() / 1000.0;
+    }
+
+    /**
+     * Approximate latency below which fraction (0 to 1) of the samples fall.
+     */
+    public double getPercentileMs(double fraction) {
+      long n = count.get();
+      if (n == 0) {
+        return 0;
+      }
+      double target = Math.max(1, n * fraction);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        long inBucket = buckets.get(i);
+        if (inBucket > 0 && seen + inBucket >= target) {
+          // bucket i holds values from 2^(i-1) up to 2^i microseconds,
+          // assume they are spread evenly
+          double low = i == 0 ? 0 : (1L << (i - 1));
+          double high = 1L << i;
+          double micros = low + (high - low) * (target - seen) / inBucket;
+          return Math.min(getMaxMs(), micros / 1000.0);
+        }
+        seen += inBucket;
+      }
+      return getMaxMs();
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets.set(i, 0);
+      }
+      count.set(0);
+      sumMicros.set(0);
+      maxMicros.set(0);
+    }
+  }
+
+  private static final AtomicInteger connectionIds = new AtomicInteger();
+  private static MapDMetrics driverMetrics = null;
+
+  /**
+   * Totals over every connection in this JVM.
+   */
+  public static synchronized MapDMetrics getDriverMetrics() {
+    if (driverMetrics == null) {
+      driverMetrics = new MapDMetrics(null);
+      driverMetrics.register("com.mapd.jdbc:type=Driver");
+    }
+    return driverMetrics;
+  }
+
+  static MapDMetrics forConnection() {
+    MapDMetrics metrics = new MapDMetrics(getDriverMetrics());
+    metrics.register("com.mapd.jdbc:type=Connection,id=" + connectionIds.incrementAndGet());
+    return metrics;
+  }
+
+  private final MapDMetrics parent;
+  private ObjectName name = null;
+
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong queryErrors = new AtomicLong();
+  private final AtomicLong rowsFetched = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong rowsLoaded = new AtomicLong();
+  private final AtomicLong resultCacheHits = new AtomicLong();
+  private final Histogram queryLatency = new Histogram();
+  private final Histogram serverExecution = new Histogram();
+  private final Histogram network = new Histogram();
+  private final Histogram receive = new Histogram();
+  private final Histogram iteration = new Histogram();
+  private final Histogram loadLatency = new Histogram();
+
+  private MapDMetrics(MapDMetrics parent) {
+    this.parent = parent;
+  }
+
+  private void register(String objectName) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName on = new ObjectName(objectName);
+      server.registerMBean(this, on);
+      name = on;
+    } catch (Exception ex) {
+      // a locked down MBean server must not stop connections from working
+      logger.debug("Could not register " + objectName + " - " + ex.toString());
+    } catch (LinkageError ex) {
+      logger.debug("Could not register " + objectName + " - " + ex.toString());
+    }
+  }
+
+  void unregister() {
+    if (name == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (Exception ex) {
+      logger.debug("Could not unregister " + name + " - " + ex.toString());
+    }
+    name = null;
+  }
+
+  /**
+   * Records a finished sql_execute. waitNanos and receiveNanos are -1 when
+   * the transport could not tell them apart.
+   */
+  void recordQuery(long totalNanos, long serverExecutionMs, long serverTotalMs, long waitNanos, long receiveNanos,
+          long rows) {
+    queries.incrementAndGet();
+    queryLatency.record(totalNanos);
+    serverExecution.record(serverExecutionMs * 1000000L);
+    if (waitNanos >= 0) {
+      network.record(Math.max(0, waitNanos - serverTotalMs * 1000000L));
+    }
+    if (receiveNanos >= 0) {
+      receive.record(receiveNanos);
+    }
+    rowsFetched.addAndGet(rows);
+    if (parent != null) {
+      parent.recordQuery(totalNanos, serverExecutionMs, serverTotalMs, waitNanos, receiveNanos, rows);
+    }
+  }
+
+  void recordQueryError() {
+    queryErrors.incrementAndGet();
+    if (parent != null) {
+      parent.recordQueryError();
+    }
+  }
+
+  void recordResultCacheHit() {
+    resultCacheHits.incrementAndGet();
+    if (parent != null) {
+      parent.recordResultCacheHit();
+    }
+  }
+
+  void recordIteration(long nanos) {
+    iteration.record(nanos);
+    if (parent != null) {
+      parent.recordIteration(nanos);
+    }
+  }
+
+  void recordBytes(long sent, long received) {
+    bytesSent.addAndGet(sent);
+    bytesReceived.addAndGet(received);
+    if (parent != null) {
+      parent.recordBytes(sent, received);
+    }
+  }
+
+  void recordLoad(long rows, long nanos) {
+    rowsLoaded.addAndGet(rows);
+    loadLatency.record(nanos);
+    if (parent != null) {
+      parent.recordLoad(rows, nanos);
+    }
+  }
+
+  public Histogram getQueryLatency() {
+    return queryLatency;
+  }
+
+  public Histogram getServerExecution() {
+    return serverExecution;
+  }
+
+  public Histogram getNetwork() {
+    return network;
+  }
+
+  public Histogram getReceive() {
+    return receive;
+  }
+
+  public Histogram getIteration() {
+    return iteration;
+  }
+
+  public Histogram getLoadLatency() {
+    return loadLatency;
+  }
+
+  @Override
+  public long getQueryCount() {
+    return queries.get();
+  }
+
+  @Override
+  public long getQueryErrorCount() {
+    return queryErrors.get();
+  }
+
+  @Override
+  public double getMeanQueryMs() {
+    return queryLatency.getMeanMs();
+  }
+
+  @Override
+  public double getP50QueryMs() {
+    return queryLatency.getPercentileMs(0.5);
+  }
+
+  @Override
+  public double getP99QueryMs() {
+    return queryLatency.getPercentileMs(0.99);
+  }
+
+  @Override
+  public double getMaxQueryMs() {
+    return queryLatency.getMaxMs();
+  }
+
+  @Override
+  public double getMeanServerExecutionMs() {
+    return serverExecution.getMeanMs();
+  }
+
+  @Override
+  public double getMeanNetworkMs() {
+    return network.getMeanMs();
+  }
+
+  @Override
+  public double getMeanReceiveMs() {
+    return receive.getMeanMs();
+  }
+
+  @Override
+  public double getMeanIterationMs() {
+    return iteration.getMeanMs();
+  }
+
+  @Override
+  public long getRowsFetched() {
+    return rowsFetched.get();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public long getLoadCount() {
+    return loadLatency.getCount();
+  }
+
+  @Override
+  public long getRowsLoaded() {
+    return rowsLoaded.get();
+  }
+
+  /**
+   * Rows loaded per second of time spent in load calls.
+   */
+  @Override
+  public double getRowsLoadedPerSecond() {
+    double ms = loadLatency.getTotalMs();
+    return ms == 0 ? 0 : rowsLoaded.get() * 1000.0 / ms;
+  }
+
+  @Override
+  public double getP99LoadMs() {
+    return loadLatency.getPercentileMs(0.99);
+  }
+
+  @Override
+  public long getResultCacheHits() {
+    return resultCacheHits.get();
+  }
+
+  @Override
+  public void reset() {
+    queries.set(0);
+    queryErrors.set(0);
+    rowsFetched.set(0);
+    bytesSent.set(0);
+    bytesReceived.set(0);
+    rowsLoaded.set(0);
+    resultCacheHits.set(0);
+    queryLatency.reset();
+    serverExecution.reset();
+    network.reset();
+    receive.reset();
+    iteration.reset();
+    loadLatency.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("queries %d (%d failed), mean %.2f ms, p99 %.2f ms, server %.2f ms, network %.2f ms, "
+            + "receive %.2f ms, iteration %.2f ms, %d rows fetched, %d bytes sent, %d bytes received, "
+            + "%d rows loaded at %.0f rows/s", getQueryCount(), getQueryErrorCount(), getMeanQueryMs(),
+            getP99QueryMs(), getMeanServerExecutionMs(), getMeanNetworkMs(), getMeanReceiveMs(),
+            getMeanIterationMs(), getRowsFetched(), getBytesSent(), getBytesReceived(), getRowsLoaded(),
+            getRowsLoadedPerSecond());
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+/**
+ * JMX view of MapDMetrics. Times are in milliseconds.
+ */
+public interface MapDMetricsMBean {
+
+  long getQueryCount();
+
+  long getQueryErrorCount();
+
+  double getMeanQueryMs();
+
+  double getP50QueryMs();
+
+  double getP99QueryMs();
+
+  double getMaxQueryMs();
+
+  double getMeanServerExecutionMs();
+
+  double getMeanNetworkMs();
+
+  double getMeanReceiveMs();
+
+  double getMeanIterationMs();
+
+  long getRowsFetched();
+
+  long getBytesSent();
+
+  long getBytesReceived();
+
+  long getLoadCount();
+
+  long getRowsLoaded();
+
+  double getRowsLoadedPerSecond();
+
+  double getP99LoadMs();
+
+  long getResultCacheHits();
+
+  void reset();
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A physical, authenticated MapD session that can be handed out repeatedly.
+ *
+ * Each call to getConnection returns a new logical handle; closing the handle
+ * notifies the registered listeners instead of disconnecting the session.
+ */
+public class MapDPooledConnection implements PooledConnection {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDPooledConnection.class);
+
+  private final MapDConnection physical;
+  private final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+  private final List<StatementEventListener> statementListeners
+          = new CopyOnWriteArrayList<StatementEventListener>();
+  private MapDConnectionHandle currentHandle = null;
+  private volatile long lastUsed;
+  private volatile long lastValidated;
+
+  MapDPooledConnection(MapDConnection physical) {
+    this.physical = physical;
+    lastUsed = System.currentTimeMillis();
+    lastValidated = lastUsed;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    MapDConnectionHandle previous;
+    MapDConnectionHandle handle;
+    synchronized (this) {
+      if (physical.isClosed()) {
+        throw new SQLException("Pooled connection has been closed");
+      }
+      // only one logical connection may be active at a time
+      previous = currentHandle;
+      if (previous != null) {
+        previous.invalidate();
+      }
+      handle = new MapDConnectionHandle(this, physical);
+      currentHandle = handle;
+    }
+    if (previous != null) {
+      previous.closeStatements();
+    }
+    return handle;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    MapDConnectionHandle previous;
+    synchronized (this) {
+      previous = currentHandle;
+      if (previous != null) {
+        previous.invalidate();
+        currentHandle = null;
+      }
+    }
+    if (previous != null) {
+      previous.closeStatements();
+    }
+    if (!physical.isClosed()) {
+      physical.close();
+    }
+  }
+
+  @Override
+  public void addConnectionEventListener(ConnectionEventListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeConnectionEventListener(ConnectionEventListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void addStatementEventListener(StatementEventListener listener) {
+    statementListeners.add(listener);
+  }
+
+  @Override
+  public void removeStatementEventListener(StatementEventListener listener) {
+    statementListeners.remove(listener);
+  }
+
+  MapDConnection getPhysicalConnection() {
+    return physical;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  long getLastValidated() {
+    return lastValidated;
+  }
+
+  boolean isPhysicallyClosed() {
+    try {
+      return physical.isClosed();
+    } catch (SQLException ex) {
+      return true;
+    }
+  }
+
+  /**
+   * Checks the session with a cheap get_server_status round trip.
+   */
+  boolean validate() {
+    try {
+      if (physical.isClosed()) {
+        return false;
+      }
+      physical.isValid(0);
+      lastValidated = System.currentTimeMillis();
+      return true;
+    } catch (SQLException ex) {
+      logger.debug("Validation failed for pooled session - " + ex.toString());
+      return false;
+    }
+  }
+
+  void handleClosed(MapDConnectionHandle handle) {
+    synchronized (this) {
+      if (handle != currentHandle) {
+        return;
+      }
+      currentHandle = null;
+    }
+    physical.warnings = null;
+    lastUsed = System.currentTimeMillis();
+    ConnectionEvent event = new ConnectionEvent(this);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionClosed(event);
+    }
+  }
+
+  void handleError(SQLException ex) {
+    ConnectionEvent event = new ConnectionEvent(this, ex);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionErrorOccurred(event);
+    }
+  }
+}
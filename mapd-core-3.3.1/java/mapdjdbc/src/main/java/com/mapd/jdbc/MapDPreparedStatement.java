@@ -42,7 +42,10 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.thrift.TException;
@@ -60,33 +63,39 @@ class MapDPreparedStatement implements PreparedStatement {
   private String currentSQL;
   private String insertTableName;
   private int parmCount = 0;
-  private String brokenSQL[];
+  private MapDSqlTemplate template;
+  private String parmValue[];
   private String parmRep[];
-  private int repCount;
+  private boolean parmSet[];
+  private int parmRepLength = 0;
   private String session;
-  private MapD.Client client;
+  private MapD.Iface client;
   private MapDStatement stmt = null;
-  private StringBuffer modQuery;
+  private MapDConnection connection;
+  private MapDBatchWriter batchWriter = null;
   private boolean isInsert = false;
   private boolean isNewBatch = true;
-  private boolean isParmString[] = null;
   private List<TStringRow> rows = null;
+  // per parameter, the values already added to this batch; null once one has too many
+  private List<Map<String, TStringValue>> batchValues = null;
+  private static final TStringValue NULL_VALUE = new TStringValue("", true);
+  // batchWriter's flush count when batchValues were last reset
+  private long writerFlushes = 0;
   private String warnings = null;
   private static final Pattern REGEX_PATTERN = Pattern.compile("(?i)\\s+INTO\\s+(\\w+)");
 
-  MapDPreparedStatement(String sql, String session, MapD.Client client) {
+  MapDPreparedStatement(String sql, String session, MapD.Iface client, MapDConnection connection) {
     currentSQL = sql;
     this.client = client;
     this.session = session;
-    this.stmt = new MapDStatement(session, client);
+    this.connection = connection;
+    this.stmt = new MapDStatement(session, client, connection);
     MAPDLOGGER.debug("Prepared statement is " + currentSQL);
-    //TODO in real life this needs to check if the ? is inside quotes before we assume it a parameter
-    brokenSQL = currentSQL.split("\\?", -1);
-    parmCount = brokenSQL.length - 1;
+    template = MapDSqlTemplate.compile(currentSQL);
+    parmCount = template.getParameterCount();
+    parmValue = new String[parmCount];
     parmRep = new String[parmCount];
-    isParmString = new boolean[parmCount];
-    repCount = 0;
-    modQuery = new StringBuffer(currentSQL.length() * 5);
+    parmSet = new boolean[parmCount];
     if (currentSQL.toUpperCase().contains("INSERT ")) {
       // remove double quotes required for queries generated with " around all names like kafka connect
       currentSQL = currentSQL.replaceAll("\"", " ");
@@ -100,38 +109,49 @@ class MapDPreparedStatement implements PreparedStatement {
     }
   }
 
-  private String getQuery() {
+  private String getQuery() throws SQLException {
     String qsql;
     //put string together if required
     if (parmCount > 0) {
-      if (repCount != parmCount) {
-        throw new UnsupportedOperationException("Incorrect number of replace parameters for prepared statement "
-                + currentSQL + " has only " + repCount + " parameters");
-      }
-      for (int i = 0; i < repCount; i++) {
-        modQuery.append(brokenSQL[i]);
-        if (isParmString[i]) {
-          modQuery.append("'").append(parmRep[i]).append("'");
-        } else {
-          modQuery.append(parmRep[i]);
+      for (int i = 0; i < parmCount; i++) {
+        if (!parmSet[i]) {
+          throw new SQLException("Parameter " + (i + 1) + " not set for prepared statement " + currentSQL);
         }
       }
-      modQuery.append(brokenSQL[parmCount]);
-      qsql = modQuery.toString();
+      qsql = template.bind(parmRep, parmRepLength);
     } else {
-      qsql = currentSQL;
+      qsql = template.bind(parmRep, 0);
     }
-
-    qsql = qsql.replace(" WHERE 1=0", " LIMIT 1 ");
     MAPDLOGGER.debug("Query is now " + qsql);
     return qsql;
   }
 
+  private void bind(int parameterIndex, String value, boolean isString) throws SQLException {
+    if (parameterIndex < 1 || parameterIndex > parmCount) {
+      throw new SQLException("Parameter index " + parameterIndex + " out of range, statement has " + parmCount
+              + " parameters");
+    }
+    int i = parameterIndex - 1;
+    if (parmRep[i] != null) {
+      parmRepLength -= parmRep[i].length();
+    }
+    if (value == null) {
+      // empty values are sent as nulls by the batch loader
+      parmValue[i] = "";
+      parmRep[i] = "NULL";
+    } else {
+      parmValue[i] = value;
+      parmRep[i] = isString ? MapDSqlTemplate.quote(value) : value;
+    }
+    parmRepLength += parmRep[i].length();
+    parmSet[i] = true;
+  }
+
   @Override
   public ResultSet executeQuery() throws SQLException { //logger.debug("Entered");
     if (isNewBatch) {
       String qsql = getQuery();
-      return stmt.executeQuery(qsql);
+      return stmt.executeQuery(qsql, template.isEscaped());
     }
     throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
             getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
@@ -147,15 +167,12 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setNull(int parameterIndex, int sqlType) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = "";
-    repCount++;
+    bind(parameterIndex, null, false);
   }
 
   @Override
   public void setBoolean(int parameterIndex, boolean x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x ? "t" : "f";
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x ? "t" : "f", true);
   }
 
   @Override
@@ -167,45 +184,37 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setShort(int parameterIndex, short x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Short.toString(x);
-    repCount++;
+    bind(parameterIndex, Short.toString(x), false);
   }
 
   @Override
   public void setInt(int parameterIndex, int x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Integer.toString(x);
-    repCount++;
+    bind(parameterIndex, Integer.toString(x), false);
   }
 
   @Override
   public void setLong(int parameterIndex, long x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Long.toString(x);
-    repCount++;
+    bind(parameterIndex, Long.toString(x), false);
   }
 
   @Override
   public void setFloat(int parameterIndex, float x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Float.toString(x);
-    repCount++;
+    bind(parameterIndex, Float.toString(x), false);
   }
 
   @Override
   public void setDouble(int parameterIndex, double x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Double.toString(x);
-    repCount++;
+    bind(parameterIndex, Double.toString(x), false);
   }
 
   @Override
   public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    repCount++;
+    bind(parameterIndex, x == null ? null : x.toString(), false);
   }
 
   @Override
   public void setString(int parameterIndex, String x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x;
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
@@ -217,23 +226,17 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setDate(int parameterIndex, Date x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x == null ? null : x.toString(), true);
   }
 
   @Override
   public void setTime(int parameterIndex, Time x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x == null ? null : x.toString(), true);
   }
 
   @Override
   public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString(); //new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(x);
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x == null ? null : x.toString(), true); //new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(x);
   }
 
   @Override
@@ -259,7 +262,12 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void clearParameters() throws SQLException { //logger.debug("Entered");
-    //TODO MAT we will actually need to do something here one day
+    for (int i = 0; i < parmCount; i++) {
+      parmValue[i] = null;
+      parmRep[i] = null;
+      parmSet[i] = false;
+    }
+    parmRepLength = 0;
   }
 
   @Override
@@ -279,7 +287,26 @@ class MapDPreparedStatement implements PreparedStatement {
   @Override
   public boolean execute() throws SQLException { //logger.debug("Entered");
     String tQuery = getQuery();
-    return stmt.execute(tQuery);
+    return stmt.executeQuery(tQuery, template.isEscaped()) != null;
+  }
+
+  /**
+   * Background writer for inserts when the connection sets any of
+   * batchFlushRows, batchFlushBytes or batchFlushIntervalMs; null means rows
+   * are held until executeBatch as before.
+   */
+  private MapDBatchWriter createBatchWriter() throws SQLException {
+    Properties info = connection.properties;
+    int flushRows = MapDConnection.intProperty(info, "batchFlushRows", 0);
+    int flushBytes = MapDConnection.intProperty(info, "batchFlushBytes", 0);
+    int flushIntervalMs = MapDConnection.intProperty(info, "batchFlushIntervalMs", 0);
+    if (flushRows <= 0 && flushBytes <= 0 && flushIntervalMs <= 0) {
+      return null;
+    }
+    int maxInFlight = MapDConnection.intProperty(info, "maxInFlightBatches", 2);
+    MAPDLOGGER.debug("Auto flushing inserts into " + insertTableName + " every " + flushRows + " rows, "
+            + flushBytes + " bytes or " + flushIntervalMs + " ms, " + maxInFlight + " batches in flight");
+    return new MapDBatchWriter(client, session, insertTableName, flushRows, flushBytes, flushIntervalMs, maxInFlight);
   }
 
   @Override
@@ -287,30 +314,71 @@ class MapDPreparedStatement implements PreparedStatement {
     if (isInsert) {
       // take the values and use stream inserter to add them
       if (isNewBatch) {
+        batchWriter = createBatchWriter();
+        writerFlushes = 0;
         rows = new ArrayList(5000);
+        batchValues = new ArrayList<Map<String, TStringValue>>(parmCount);
+        for (int i = 0; i < parmCount; i++) {
+          batchValues.add(new HashMap<String, TStringValue>());
+        }
         isNewBatch = false;
       }
+      // the writer sends batches on its own, start over with each
+      if (batchWriter != null && batchWriter.getFlushes() != writerFlushes) {
+        writerFlushes = batchWriter.getFlushes();
+        clearBatchValues();
+      }
       // add data to stream
 
       TStringRow tsr = new TStringRow();
+      tsr.cols = new ArrayList<TStringValue>(parmCount);
       for (int i = 0; i < parmCount; i++) {
-        // place string in rows array
-        TStringValue tsv = new TStringValue();
-        tsv.str_val = this.parmRep[i];
-        if (parmRep[i].length() == 0) {
-          tsv.is_null = true;
-        } else {
-          tsv.is_null = false;
-        }
-        tsr.addToCols(tsv);
+        tsr.addToCols(batchValue(i, parmValue[i]));
+      }
+      if (batchWriter != null) {
+        batchWriter.add(tsr);
+      } else {
+        rows.add(tsr);
       }
-      rows.add(tsr);
     } else {
       throw new UnsupportedOperationException("addBatch only supported for insert, line:" + new Throwable().
               getStackTrace()[0].getLineNumber());
     }
   }
 
+  /**
+   * The TStringValue for value in parameter i. Rows of a batch share one
+   * per distinct value, which keeps a large batch of low cardinality
+   * columns small in memory while it is held for load_table; the request
+   * still carries every row's value. They are never changed once added.
+   */
+  private TStringValue batchValue(int i, String value) {
+    if (value == null || value.length() == 0) {
+      return NULL_VALUE;
+    }
+    Map<String, TStringValue> values = batchValues.get(i);
+    TStringValue tsv = values == null ? null : values.get(value);
+    if (tsv == null) {
+      tsv = new TStringValue(value, false);
+      if (values != null) {
+        if (values.size() < MapDBulkLoader.MAX_BATCH_DISTINCT) {
+          values.put(value, tsv);
+        } else {
+          batchValues.set(i, null);
+        }
+      }
+    }
+    return tsv;
+  }
+
+  private void clearBatchValues() {
+    if (batchValues != null) {
+      for (int i = 0; i < parmCount; i++) {
+        batchValues.set(i, new HashMap<String, TStringValue>());
+      }
+    }
+  }
+
   @Override
   public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException { //logger.debug("Entered");
     throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
@@ -544,10 +612,18 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void close() throws SQLException { //logger.debug("Entered");
-    if (stmt != null) {
-      //TODO MAT probably more needed here
-      stmt.close();
-      stmt = null;
+    try {
+      if (batchWriter != null) {
+        // rows already added are loaded, as they would be after executeBatch
+        batchWriter.close();
+        batchWriter = null;
+      }
+    } finally {
+      if (stmt != null) {
+        //TODO MAT probably more needed here
+        stmt.close();
+        stmt = null;
+      }
     }
   }
 
@@ -596,9 +672,7 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void cancel() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    stmt.cancel();
   }
 
   @Override
@@ -694,13 +768,21 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void clearBatch() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (rows != null) {
+      rows.clear();
+    }
+    if (batchWriter != null) {
+      batchWriter.clear();
+    }
+    clearBatchValues();
   }
 
   @Override
   public int[] executeBatch() throws SQLException { //logger.debug("Entered");
+    if (batchWriter != null) {
+      clearBatchValues();
+      return batchWriter.flushAndWait();
+    }
     int ret[] = null;
     if (rows != null) {
       try {
@@ -716,6 +798,7 @@ class MapDPreparedStatement implements PreparedStatement {
         ret[i] = 1;
       }
       rows.clear();
+      clearBatchValues();
 
     }
     return ret;
@@ -828,15 +911,17 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    if (iface.isInstance(stmt)) {
+      return iface.cast(stmt);
+    }
+    throw new SQLException("MapDPreparedStatement is not a wrapper for " + iface.getName());
   }
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return iface.isInstance(this) || iface.isInstance(stmt);
   }
 }
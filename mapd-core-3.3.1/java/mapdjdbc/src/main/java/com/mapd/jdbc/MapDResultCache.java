@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per connection LRU cache of query results, off unless the resultCacheSize
+ * connection property is set.
+ *
+ * Entries are keyed by database and normalized SQL and hold the decoded
+ * TQueryResult, which result sets only ever read. When a cached query
+ * references known tables, a hit is checked against their epochs with
+ * get_table_epoch_by_name, one small call per table instead of running the
+ * query; queries that reference no known table are only kept while
+ * resultCacheTtlMs allows. Writes and DDL on the connection drop everything.
+ *
+ * Queries on views are not cached, a view has no epoch of its own that
+ * follows its tables, and neither are queries calling a function whose
+ * result changes from run to run, such as NOW() or RAND().
+ */
+class MapDResultCache {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDResultCache.class);
+
+  private static class CachedResult {
+
+    final TQueryResult result;
+    final Map<String, Integer> epochs;
+    final long loadedAt;
+
+    CachedResult(TQueryResult result, Map<String, Integer> epochs) {
+      this.result = result;
+      this.epochs = epochs;
+      this.loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  // functions that give a different answer each run, whatever the tables hold
+  private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<String>(Arrays.asList("now",
+          "current_timestamp", "current_date", "current_time", "localtimestamp", "localtime", "rand", "random",
+          "uuid"));
+
+  private final MapD.Iface client;
+  private final MapDMetadataCache metadataCache;
+  private final int maxRows;
+  private final long ttlMs;
+  private final LinkedHashMap<String, CachedResult> entries;
+  private long generation = 0;
+
+  MapDResultCache(MapD.Iface client, MapDMetadataCache metadataCache, final int maxEntries, int maxRows,
+          long ttlMs) {
+    this.client = client;
+    this.metadataCache = metadataCache;
+    this.maxRows = maxRows;
+    this.ttlMs = ttlMs;
+    entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * True for statements whose results can be cached.
+   */
+  static boolean isQuery(String sql) {
+    int i = 0;
+    int len = sql.length();
+    while (i < len && (Character.isWhitespace(sql.charAt(i)) || sql.charAt(i) == '(')) {
+      i++;
+    }
+    return sql.regionMatches(true, i, "SELECT", 0, 6) || sql.regionMatches(true, i, "WITH", 0, 4);
+  }
+
+  /**
+   * Cache key for sql on db: runs of whitespace become one space and
+   * everything outside quotes is lower cased.
+   */
+  static String key(String db, String sql) {
+    StringBuilder sb = new StringBuilder(db.length() + sql.length() + 1);
+    sb.append(db).append('\n');
+    char quote = 0;
+    boolean space = false;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        sb.append(c);
+        if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+      if (Character.isWhitespace(c)) {
+        space = true;
+        continue;
+      }
+      if (space && sb.charAt(sb.length() - 1) != '\n') {
+        sb.append(' ');
+      }
+      space = false;
+      if (c == '\'' || c == '"') {
+        quote = c;
+        sb.append(c);
+      } else {
+        sb.append(Character.toLowerCase(c));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the cached result for key if it is still valid, or null.
+   */
+  TQueryResult get(String session, String key) {
+    CachedResult entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      return null;
+    }
+    boolean valid = ttlMs <= 0 || System.currentTimeMillis() - entry.loadedAt < ttlMs;
+    if (valid && !entry.epochs.isEmpty()) {
+      try {
+        for (Map.Entry<String, Integer> table : entry.epochs.entrySet()) {
+          if (client.get_table_epoch_by_name(session, table.getKey()) != table.getValue()) {
+            valid = false;
+            break;
+          }
+        }
+      } catch (TException ex) {
+        logger.debug("Result cache epoch check failed - " + ex.toString());
+        valid = false;
+      }
+    }
+    if (!valid) {
+      synchronized (this) {
+        if (entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+      return null;
+    }
+    return entry.result;
+  }
+
+  /**
+   * Epochs of the tables sql refers to, taken before the query runs so a
+   * write that lands meanwhile only costs a miss later. Returns null when
+   * the result should not be cached.
+   */
+  Map<String, Integer> snapshot(String session, String sql) {
+    List<String> words = identifiers(sql);
+    for (String word : words) {
+      if (VOLATILE_FUNCTIONS.contains(word)) {
+        logger.debug("Result not cached, " + word + " changes from run to run");
+        return null;
+      }
+    }
+    Map<String, Integer> epochs = new HashMap<String, Integer>();
+    try {
+      for (String table : referencedTables(session, words)) {
+        epochs.put(table, client.get_table_epoch_by_name(session, table));
+      }
+    } catch (TMapDException ex) {
+      // also how the server turns down views
+      logger.debug("Result not cached, epoch lookup failed - " + ex.getError_msg());
+      return null;
+    } catch (TException ex) {
+      logger.debug("Result not cached, epoch lookup failed - " + ex.toString());
+      return null;
+    } catch (SQLException ex) {
+      logger.debug("Result not cached, table list failed - " + ex.toString());
+      return null;
+    }
+    // nothing would ever invalidate it
+    if (epochs.isEmpty() && ttlMs <= 0) {
+      return null;
+    }
+    return epochs;
+  }
+
+  /**
+   * Stores result under key unless it is too large or the cache was
+   * invalidated since generation was read.
+   */
+  synchronized void put(String key, long generation, Map<String, Integer> epochs, TQueryResult result) {
+    if (generation != this.generation || MapDClientPool.rowCount(result.row_set) > maxRows) {
+      return;
+    }
+    entries.put(key, new CachedResult(result, epochs));
+  }
+
+  /**
+   * Tables of the session's database among the identifiers of a query.
+   * Matching is on words, so a column that shares a table's name only costs
+   * an extra epoch check.
+   */
+  private List<String> referencedTables(String session, List<String> words) throws SQLException {
+    Map<String, String> known = new HashMap<String, String>();
+    for (String table : metadataCache.getTables(session)) {
+      known.put(table.toLowerCase(), table);
+    }
+    Map<String, String> found = new LinkedHashMap<String, String>();
+    for (String word : words) {
+      if (known.containsKey(word)) {
+        found.put(word, known.get(word));
+      }
+    }
+    return new ArrayList<String>(found.values());
+  }
+
+  /**
+   * The lower cased identifiers of sql, outside string literals.
+   */
+  static List<String> identifiers(String sql) {
+    List<String> words = new ArrayList<String>();
+    int i = 0;
+    int len = sql.length();
+    while (i < len) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        // skip string literals
+        i = sql.indexOf('\'', i + 1);
+        if (i < 0) {
+          break;
+        }
+        i++;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start = i;
+        while (i < len && Character.isJavaIdentifierPart(sql.charAt(i))) {
+          i++;
+        }
+        words.add(sql.substring(start, i).toLowerCase());
+      } else {
+        i++;
+      }
+    }
+    return words;
+  }
+
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  synchronized void invalidate() {
+    generation++;
+    entries.clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pending result of an asynchronous query.
+ *
+ * Either block on get() or register a MapDResultListener; listeners added
+ * after completion are called straight away on the calling thread.
+ */
+public class MapDResultFuture implements Future<ResultSet> {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDResultFuture.class);
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private final List<MapDResultListener> listeners = new ArrayList<MapDResultListener>();
+  private ResultSet result = null;
+  private SQLException error = null;
+  private boolean cancelled = false;
+  private volatile boolean started = false;
+  private volatile Runnable cancelHook = null;
+
+  MapDResultFuture() {
+  }
+
+  void markStarted() {
+    started = true;
+  }
+
+  void setCancelHook(Runnable cancelHook) {
+    this.cancelHook = cancelHook;
+  }
+
+  public void addListener(MapDResultListener listener) {
+    synchronized (this) {
+      if (done.getCount() > 0) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    fire(listener);
+  }
+
+  boolean complete(ResultSet rs) {
+    synchronized (this) {
+      if (done.getCount() == 0) {
+        return false;
+      }
+      result = rs;
+      done.countDown();
+    }
+    fireAll();
+    return true;
+  }
+
+  boolean fail(SQLException ex) {
+    synchronized (this) {
+      if (done.getCount() == 0) {
+        return false;
+      }
+      error = ex;
+      done.countDown();
+    }
+    fireAll();
+    return true;
+  }
+
+  /**
+   * Marks the query as cancelled. A query still queued in the driver is never
+   * sent; one that already reached the server runs on and its result is
+   * discarded. Only with mayInterruptIfRunning and the connection's
+   * interruptOnCancel property is the server interrupted too.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (this) {
+      if (done.getCount() == 0) {
+        return false;
+      }
+      cancelled = true;
+      error = new SQLException("Query cancelled");
+      done.countDown();
+    }
+    Runnable hook = cancelHook;
+    if (mayInterruptIfRunning && started && hook != null) {
+      hook.run();
+    }
+    fireAll();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public ResultSet get() throws InterruptedException, ExecutionException {
+    done.await();
+    return report();
+  }
+
+  @Override
+  public ResultSet get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+          TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException("Query still running after " + unit.toMillis(timeout) + "ms");
+    }
+    return report();
+  }
+
+  /**
+   * Blocking convenience that reports failures the way Statement.executeQuery
+   * does.
+   */
+  public ResultSet getResultSet() throws SQLException {
+    try {
+      done.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for query result");
+    }
+    synchronized (this) {
+      if (error != null) {
+        throw error;
+      }
+      return result;
+    }
+  }
+
+  private synchronized ResultSet report() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException("Query cancelled");
+    }
+    if (error != null) {
+      throw new ExecutionException(error.getMessage(), error);
+    }
+    return result;
+  }
+
+  private void fireAll() {
+    List<MapDResultListener> toFire;
+    synchronized (this) {
+      toFire = new ArrayList<MapDResultListener>(listeners);
+      listeners.clear();
+    }
+    for (MapDResultListener listener : toFire) {
+      fire(listener);
+    }
+  }
+
+  private void fire(MapDResultListener listener) {
+    ResultSet rs;
+    SQLException ex;
+    synchronized (this) {
+      rs = result;
+      ex = error;
+    }
+    try {
+      if (ex != null) {
+        listener.onError(ex);
+      } else {
+        listener.onResult(rs);
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Result listener threw " + e.toString());
+    }
+  }
+}
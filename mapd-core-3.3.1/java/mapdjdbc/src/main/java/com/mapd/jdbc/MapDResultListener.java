@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback for queries started with MapDStatement.executeQueryAsync.
+ *
+ * Callbacks run on a pool of driver threads shared by every asynchronous
+ * query in the JVM, never on the network thread, so a slow listener only
+ * holds up its own query. Listeners added after the query has finished run
+ * on the thread adding them.
+ */
+public interface MapDResultListener {
+
+  void onResult(ResultSet rs);
+
+  void onError(SQLException ex);
+}
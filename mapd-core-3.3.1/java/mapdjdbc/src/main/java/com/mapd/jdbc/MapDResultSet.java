@@ -17,7 +17,6 @@
 package com.mapd.jdbc;
 
 import com.mapd.thrift.server.TColumnType;
-import com.mapd.thrift.server.TDatumType;
 import com.mapd.thrift.server.TQueryResult;
 import com.mapd.thrift.server.TRowSet;
 import java.io.InputStream;
@@ -53,7 +52,7 @@ import org.slf4j.LoggerFactory;
 //System.out.println("Entered " + " line:" + new Throwable().getStackTrace()[0].getLineNumber() +
 //" class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" +
 //new Throwable().getStackTrace()[0].getMethodName());
-class MapDResultSet implements java.sql.ResultSet {
+class MapDResultSet implements java.sql.ResultSet, MapDColumnarResult {
 
   final static Logger logger = LoggerFactory.getLogger(MapDResultSet.class);
   private TQueryResult sqlResult = null;
@@ -64,8 +63,11 @@ class MapDResultSet implements java.sql.ResultSet {
   private List<TColumnType> rowDesc;
   private boolean wasNull = false;
   private Map<String, Integer> columnMap;
+  private MapDColumnAccessor[] accessors = null;
   private int fetchSize = 0;
   private SQLWarning warnings = null;
+  private MapDMetrics metrics = null;
+  private long handedOutAt = 0;
 
   public MapDResultSet(TQueryResult tsqlResult, String sql) throws SQLException { //logger.debug("Entered "+ sql );
     sqlResult = tsqlResult;
@@ -92,6 +94,10 @@ class MapDResultSet implements java.sql.ResultSet {
       numOfRecords = 0;
     } else {
       numOfRecords = rowSet.getColumns().get(0).getNullsSize();
+      accessors = new MapDColumnAccessor[rowDesc.size()];
+      for (int i = 0; i < accessors.length; i++) {
+        accessors[i] = MapDColumnAccessor.forColumn(rowDesc.get(i), rowSet.columns.get(i));
+      }
     }
 
     logger.debug("number of records is " + numOfRecords);
@@ -103,6 +109,22 @@ class MapDResultSet implements java.sql.ResultSet {
     numOfRecords = 0;
   }
 
+  /**
+   * Starts timing iteration; the time is recorded once next() runs off the
+   * end or the result set is closed.
+   */
+  void setMetrics(MapDMetrics metrics) {
+    this.metrics = metrics;
+    handedOutAt = System.nanoTime();
+  }
+
+  private void recordIteration() {
+    if (metrics != null) {
+      metrics.recordIteration(System.nanoTime() - handedOutAt);
+      metrics = null;
+    }
+  }
+
   @Override
   public boolean next() throws SQLException { //logger.debug("Entered "+ sql );
 
@@ -111,17 +133,27 @@ class MapDResultSet implements java.sql.ResultSet {
     if (offset < numOfRecords) {
       return true;
     }
+    recordIteration();
     return false;
   }
 
   @Override
   public void close() throws SQLException { //logger.debug("Entered "+ sql );
     // clean up the result object
+    recordIteration();
     this.rowDesc = null;
     this.rowSet = null;
+    this.accessors = null;
     this.sqlResult = null;
   }
 
+  private MapDColumnAccessor column(int columnIndex) throws SQLException {
+    if (accessors == null || columnIndex < 1 || columnIndex > accessors.length) {
+      throw new SQLException("Column index " + columnIndex + " is out of range");
+    }
+    return accessors[columnIndex - 1];
+  }
+
   @Override
   public boolean wasNull() throws SQLException { //logger.debug("Entered "+ sql );
     return wasNull;
@@ -129,67 +161,24 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public String getString(int columnIndex) throws SQLException {
-    //System.out.println("Entered " + " line:" + new Throwable().getStackTrace()[0].getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().getStackTrace()[0].getMethodName());
-    //logger.info("Dump result columns "+rowSet.columns.toString());
-    //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      wasNull = false;
-      TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-      if (type == TDatumType.STR) {
-        return rowSet.columns.get(columnIndex - 1).data.str_col.get(offset);
-      } else {
-        return (String) getStringInternal(columnIndex);
-      }
-    }
-  }
-
-  private String getStringInternal(int columnIndex) throws SQLException {
-    TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-    switch (type) {
-      case SMALLINT:
-      case INT:
-      case BIGINT:
-        return String.valueOf(getInt(columnIndex));
-      case FLOAT:
-        return String.valueOf(getFloat(columnIndex));
-      case DECIMAL:
-        return String.valueOf(getFloat(columnIndex));
-      case DOUBLE:
-        return String.valueOf(getDouble(columnIndex));
-      case STR:
-        return getString(columnIndex);
-      case TIME:
-        return getTime(columnIndex).toString();
-      case TIMESTAMP:
-        return getTimestamp(columnIndex).toString();
-      case DATE:
-        return getDate(columnIndex).toString();
-      case BOOL:
-        return getBoolean(columnIndex) ? "1" : "0";
-      default:
-        throw new AssertionError(type.name());
     }
+    wasNull = false;
+    return column.getString(offset);
   }
 
   @Override
   public boolean getBoolean(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return false;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      if (rowSet.columns.get(columnIndex - 1).data.int_col.get(offset) == 0) {
-        return false;
-      } else {
-        return true;
-      }
     }
+    wasNull = false;
+    return column.getBoolean(offset);
   }
 
   @Override
@@ -201,113 +190,68 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public short getShort(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    //logger.info("Dump result columns "+rowSet.columns.toString());
-    //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      Long lObj = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return lObj.shortValue();
     }
+    wasNull = false;
+    return (short) column.getLong(offset);
   }
 
   @Override
   public int getInt(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      Long lObj = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return lObj.intValue();
     }
+    wasNull = false;
+    return (int) column.getLong(offset);
   }
 
   @Override
   public long getLong(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      return rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
     }
+    wasNull = false;
+    return column.getLong(offset);
   }
 
   @Override
   public float getFloat(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      return rowSet.columns.get(columnIndex - 1).data.real_col.get(offset).floatValue();
     }
+    wasNull = false;
+    return column.getFloat(offset);
   }
 
   @Override
   public double getDouble(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-      if (type == TDatumType.DOUBLE) {
-        return rowSet.columns.get(columnIndex - 1).data.real_col.get(offset);
-      } else {
-        return getDoubleInternal(columnIndex);
-      }
-    }
-  }
-
-  private double getDoubleInternal(int columnIndex) throws SQLException {
-    TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-    switch (type) {
-      case SMALLINT:
-      case INT:
-      case BIGINT:
-        return (double) getInt(columnIndex);
-      case FLOAT:
-        return (double) getFloat(columnIndex);
-      case DECIMAL:
-        return (double) getFloat(columnIndex);
-      case DOUBLE:
-        return getDouble(columnIndex);
-      case STR:
-        return Double.valueOf(getString(columnIndex));
-      case TIME:
-        return (double) getTime(columnIndex).getTime();
-      case TIMESTAMP:
-        return (double) getTimestamp(columnIndex).getTime();
-      case DATE:
-        return (double) getDate(columnIndex).getTime();
-      case BOOL:
-        return (double) (getBoolean(columnIndex) ? 1 : 0);
-      default:
-        throw new AssertionError(type.name());
     }
+    wasNull = false;
+    return column.getDouble(offset);
   }
 
   @Override
   public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      return new BigDecimal(rowSet.columns.get(columnIndex - 1).data.real_col.get(offset));
     }
+    wasNull = false;
+    return column.getBigDecimal(offset);
   }
 
   @Override
@@ -319,44 +263,35 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public Date getDate(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    //logger.info("Dump result columns "+rowSet.columns.get(columnIndex-1).data.toString());
-    //logger.info("Dump offset::" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      Date d = new Date(val * 1000);
-      return d;
     }
+    wasNull = false;
+    return new Date(column.getMillis(offset));
   }
 
   @Override
   public Time getTime(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return new Time(val * 1000);
     }
+    wasNull = false;
+    return new Time(column.getMillis(offset));
   }
 
   @Override
   public Timestamp getTimestamp(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return new Timestamp(val * 1000);
     }
+    wasNull = false;
+    return new Timestamp(column.getMillis(offset));
   }
 
   @Override
@@ -538,33 +473,13 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public Object getObject(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    //logger.info("Dump result column "+rowSet.columns.get(columnIndex-1));
-    //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      wasNull = false;
-      // check type
-      switch (rowDesc.get(columnIndex - 1).col_type.type) {
-        case SMALLINT:
-        case INT:
-        case BIGINT:
-        case BOOL:
-        case TIME:
-        case TIMESTAMP:
-        case DATE:
-          return this.rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-        case FLOAT:
-        case DECIMAL:
-        case DOUBLE:
-          return this.rowSet.columns.get(columnIndex - 1).data.real_col.get(offset);
-        case STR:
-          return this.rowSet.columns.get(columnIndex - 1).data.str_col.get(offset);
-        default:
-          throw new AssertionError(rowDesc.get(columnIndex - 1).col_type.type.name());
-      }
     }
+    wasNull = false;
+    return column.getObject(offset);
   }
 
   @Override
@@ -595,14 +510,13 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public BigDecimal getBigDecimal(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumnAccessor column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
-    } else {
-      // assume column is str already for now
-      wasNull = false;
-      return new BigDecimal(rowSet.columns.get(columnIndex - 1).data.real_col.get(offset));
     }
+    wasNull = false;
+    return column.getBigDecimal(offset);
   }
 
   @Override
@@ -1611,16 +1525,104 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException { //logger.debug("Entered "+ sql );
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("MapDResultSet is not a wrapper for " + iface.getName());
   }
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException { //logger.debug("Entered "+ sql );
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return iface.isInstance(this);
   }
 
+  // MapDColumnarResult
+  @Override
+  public int getRowCount() {
+    return numOfRecords;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return accessors == null ? 0 : accessors.length;
+  }
+
+  @Override
+  public String getColumnName(int column) throws SQLException {
+    column(column);
+    return rowDesc.get(column - 1).col_name;
+  }
+
+  @Override
+  public int getColumnType(int column) throws SQLException {
+    return MapDType.toJava(column(column).type);
+  }
+
+  @Override
+  public boolean isNullable(int column) throws SQLException {
+    return column(column).isNullable();
+  }
+
+  private int readCount(int from, int length) throws SQLException {
+    if (from < 0 || from > numOfRecords) {
+      throw new SQLException("Row " + from + " is out of range, the result has " + numOfRecords + " rows");
+    }
+    return Math.min(length, numOfRecords - from);
+  }
+
+  @Override
+  public int readNulls(int column, int from, boolean[] dest) throws SQLException {
+    int count = readCount(from, dest.length);
+    column(column).readNulls(from, dest, count);
+    return count;
+  }
+
+  @Override
+  public int readLongs(int column, int from, long[] dest) throws SQLException {
+    int count = readCount(from, dest.length);
+    column(column).readLongs(from, dest, count);
+    return count;
+  }
+
+  @Override
+  public int readDoubles(int column, int from, double[] dest) throws SQLException {
+    int count = readCount(from, dest.length);
+    column(column).readDoubles(from, dest, count);
+    return count;
+  }
+
+  @Override
+  public int readStrings(int column, int from, String[] dest) throws SQLException {
+    int count = readCount(from, dest.length);
+    column(column).readStrings(from, dest, count);
+    return count;
+  }
+
+  @Override
+  public boolean[] getNulls(int column) throws SQLException {
+    boolean[] dest = new boolean[numOfRecords];
+    readNulls(column, 0, dest);
+    return dest;
+  }
+
+  @Override
+  public long[] getLongs(int column) throws SQLException {
+    long[] dest = new long[numOfRecords];
+    readLongs(column, 0, dest);
+    return dest;
+  }
+
+  @Override
+  public double[] getDoubles(int column) throws SQLException {
+    double[] dest = new double[numOfRecords];
+    readDoubles(column, 0, dest);
+    return dest;
+  }
+
+  @Override
+  public String[] getStrings(int column) throws SQLException {
+    String[] dest = new String[numOfRecords];
+    readStrings(column, 0, dest);
+    return dest;
+  }
 }
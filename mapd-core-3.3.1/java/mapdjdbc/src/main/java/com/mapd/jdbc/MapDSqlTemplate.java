@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepared statement SQL split once into static fragments and parameter
+ * slots.
+ *
+ * Placeholders are found with a small tokenizer that skips '?' inside string
+ * literals, quoted identifiers and comments. The JDBC escape rewrite
+ * (MapDStatement.fnReplace) is applied to the template at compile time, so
+ * binding parameters only has to concatenate fragments and rendered values.
+ * Compiled templates are shared between statements through a small LRU keyed
+ * on the SQL text.
+ */
+class MapDSqlTemplate {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDSqlTemplate.class);
+
+  // stands in for parameters while the escape rewrite runs over the template
+  private static final char SLOT = '\uFFFF';
+  private static final int CACHE_SIZE = 256;
+
+  private static final Map<String, MapDSqlTemplate> cache = new LinkedHashMap<String, MapDSqlTemplate>(64, 0.75f,
+          true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, MapDSqlTemplate> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private final String sql;
+  private final String[] fragments;
+  private final boolean escaped;
+  private final int staticLength;
+
+  private MapDSqlTemplate(String sql, String[] fragments, boolean escaped) {
+    this.sql = sql;
+    this.fragments = fragments;
+    this.escaped = escaped;
+    int len = 0;
+    for (String fragment : fragments) {
+      len += fragment.length();
+    }
+    staticLength = len;
+  }
+
+  static MapDSqlTemplate compile(String sql) {
+    synchronized (cache) {
+      MapDSqlTemplate template = cache.get(sql);
+      if (template != null) {
+        return template;
+      }
+    }
+    MapDSqlTemplate template = build(sql);
+    synchronized (cache) {
+      cache.put(sql, template);
+    }
+    return template;
+  }
+
+  private static MapDSqlTemplate build(String sql) {
+    List<Integer> slots = findPlaceholders(sql);
+    if (sql.indexOf(SLOT) >= 0) {
+      // can not use the marker, cut at the placeholder positions directly
+      String[] fragments = new String[slots.size() + 1];
+      int start = 0;
+      for (int i = 0; i < slots.size(); i++) {
+        fragments[i] = probeLimit(sql.substring(start, slots.get(i)));
+        start = slots.get(i) + 1;
+      }
+      fragments[slots.size()] = probeLimit(sql.substring(start));
+      return new MapDSqlTemplate(sql, fragments, false);
+    }
+    StringBuilder marked = new StringBuilder(sql);
+    for (int pos : slots) {
+      marked.setCharAt(pos, SLOT);
+    }
+    String template = probeLimit(marked.toString());
+    String rewritten = MapDStatement.fnReplace(template);
+
+    String[] fragments = split(rewritten, slots.size());
+    if (fragments != null) {
+      return new MapDSqlTemplate(sql, fragments, true);
+    }
+    // the rewrite swallowed a parameter, escape the bound text on every execute instead
+    logger.debug("Escape rewrite moved parameters, not precompiling '" + sql + "'");
+    return new MapDSqlTemplate(sql, split(template, slots.size()), false);
+  }
+
+  // tools probe result sets with WHERE 1=0, which MapD does not short cut
+  private static String probeLimit(String sql) {
+    return sql.replace(" WHERE 1=0", " LIMIT 1 ");
+  }
+
+  private static String[] split(String template, int parameterCount) {
+    String[] fragments = new String[parameterCount + 1];
+    int count = 0;
+    int start = 0;
+    for (int i = 0; i < template.length(); i++) {
+      if (template.charAt(i) == SLOT) {
+        if (count == parameterCount) {
+          return null;
+        }
+        fragments[count++] = template.substring(start, i);
+        start = i + 1;
+      }
+    }
+    if (count != parameterCount) {
+      return null;
+    }
+    fragments[count] = template.substring(start);
+    return fragments;
+  }
+
+  /**
+   * Positions of '?' placeholders outside literals, quoted identifiers and
+   * comments.
+   */
+  static List<Integer> findPlaceholders(String sql) {
+    List<Integer> slots = new ArrayList<Integer>();
+    int len = sql.length();
+    int i = 0;
+    while (i < len) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"') {
+        // a doubled quote inside a literal is an escaped quote
+        i++;
+        while (i < len) {
+          if (sql.charAt(i) == c) {
+            if (i + 1 < len && sql.charAt(i + 1) == c) {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+      } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+        while (i < len && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? len : end + 2;
+      } else {
+        if (c == '?') {
+          slots.add(i);
+        }
+        i++;
+      }
+    }
+    return slots;
+  }
+
+  int getParameterCount() {
+    return fragments.length - 1;
+  }
+
+  String getSql() {
+    return sql;
+  }
+
+  /**
+   * True when bind() output has already been through the escape rewrite.
+   */
+  boolean isEscaped() {
+    return escaped;
+  }
+
+  /**
+   * Builds the query text; values must already be rendered as SQL literals.
+   */
+  String bind(String[] values, int valuesLength) {
+    StringBuilder out = new StringBuilder(staticLength + valuesLength);
+    for (int i = 0; i < values.length; i++) {
+      out.append(fragments[i]).append(values[i]);
+    }
+    out.append(fragments[values.length]);
+    return out.toString();
+  }
+
+  static String quote(String value) {
+    if (value.indexOf('\'') < 0) {
+      return "'" + value + "'";
+    }
+    return "'" + value.replace("'", "''") + "'";
+  }
+}
@@ -21,7 +21,14 @@ import com.mapd.thrift.server.TQueryResult;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.SQLWarning;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import org.apache.thrift.TException;
 import org.slf4j.LoggerFactory;
@@ -34,20 +41,290 @@ public class MapDStatement implements java.sql.Statement {
 
   final static org.slf4j.Logger logger = LoggerFactory.getLogger(MapDStatement.class);
   private String session;
-  private MapD.Client client;
+  private MapD.Iface client;
+  private MapDConnection connection;
   private ResultSet currentRS = null;
   private TQueryResult sqlResult = null;
   private int maxRows = 100000; // add limit to unlimited queries
   private boolean escapeProcessing = false;
-  private int queryTimeout;
+  private int queryTimeout = 0;
+  private volatile boolean executing = false;
+  private volatile boolean cancelled = false;
+  private volatile boolean timedOut = false;
+  // stops the wait on a running query, for timeouts and cancel
+  private final MapDClientPool.CallLimit limit = new MapDClientPool.CallLimit();
+  private final MapD.Iface limitedClient;
+  private volatile int run = 0;
+  private long lastExecutionTimeMs = -1;
+  private long lastTotalTimeMs = -1;
+  private long lastElapsedTimeMs = -1;
+
+  private static ScheduledExecutorService timeoutScheduler = null;
+
+  static synchronized ScheduledExecutorService getTimeoutScheduler() {
+    if (timeoutScheduler == null) {
+      timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "mapd-query-timeout");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return timeoutScheduler;
+  }
 
-  MapDStatement(String tsession, MapD.Client tclient) {
+  MapDStatement(String tsession, MapD.Iface tclient, MapDConnection tconnection) {
     session = tsession;
     client = tclient;
+    connection = tconnection;
+    limitedClient = connection.getClient(limit);
   }
 
   @Override
   public ResultSet executeQuery(String sql) throws SQLException { //logger.debug("Entered");
+    return executeQuery(sql, false);
+  }
+
+  /**
+   * Runs sql, skipping the JDBC escape rewrite when the caller has already
+   * applied it (precompiled prepared statements).
+   */
+  ResultSet executeQuery(String sql, boolean escaped) throws SQLException {
+    sql = addLimit(sql);
+    logger.debug("sql is :'" + sql + "'");
+    String afterFnSQL = escaped ? sql : fnReplace(sql);
+    logger.debug("afterFnSQL is :'" + afterFnSQL + "'");
+    MapDResultCache cache = connection.resultCache;
+    String cacheKey = null;
+    long cacheGeneration = 0;
+    Map<String, Integer> epochs = null;
+    if (cache != null && MapDResultCache.isQuery(afterFnSQL)) {
+      cacheKey = MapDResultCache.key(connection.db, afterFnSQL);
+      TQueryResult cached = cache.get(session, cacheKey);
+      if (cached != null) {
+        connection.getMetrics().recordResultCacheHit();
+        sqlResult = cached;
+        lastExecutionTimeMs = 0;
+        lastTotalTimeMs = 0;
+        lastElapsedTimeMs = 0;
+        MapDResultSet rs = new MapDResultSet(cached, sql);
+        rs.setMetrics(connection.getMetrics());
+        currentRS = rs;
+        return currentRS;
+      }
+      cacheGeneration = cache.getGeneration();
+      epochs = cache.snapshot(session, afterFnSQL);
+    }
+    ScheduledFuture<?> timer = startExecution();
+    try {
+      sqlResult = limitedClient.sql_execute(session, afterFnSQL + ";", true, null, -1, -1);
+    } catch (TMapDException ex) {
+      throw failure("Query failed : " + ex.getError_msg());
+    } catch (TException ex) {
+      throw failure("Query failed : " + ex.toString());
+    } finally {
+      endExecution(timer);
+      connection.statementExecuted(sql);
+    }
+    recordTimings();
+    if (epochs != null) {
+      cache.put(cacheKey, cacheGeneration, epochs, sqlResult);
+    }
+
+    MapDResultSet rs = new MapDResultSet(sqlResult, sql);
+    rs.setMetrics(connection.getMetrics());
+    currentRS = rs;
+    return currentRS;
+  }
+
+  /**
+   * Starts a query and returns without waiting for the server.
+   *
+   * The query goes over the non-blocking transport on the connection's
+   * asyncPort, so any number of queries can be outstanding without holding a
+   * thread each. The returned future does not update this statement's
+   * current result set, but goes through the connection's metadata and
+   * result caches like executeQuery. With a query timeout set the future
+   * fails with a SQLTimeoutException once it expires.
+   */
+  public MapDResultFuture executeQueryAsync(String sql) throws SQLException {
+    sql = addLimit(sql);
+    final String originalSql = sql;
+    final String afterFnSQL = fnReplace(sql);
+    logger.debug("async afterFnSQL is :'" + afterFnSQL + "'");
+    final MapDAsyncClientPool pool = connection.getAsyncClientPool();
+    final MapDResultFuture future = new MapDResultFuture();
+    if (connection.interruptOnCancel) {
+      future.setCancelHook(new Runnable() {
+        @Override
+        public void run() {
+          interrupt();
+        }
+      });
+    }
+    if (queryTimeout > 0) {
+      final int timeout = queryTimeout;
+      final ScheduledFuture<?> timer = getTimeoutScheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (future.fail(new SQLTimeoutException("Query timed out after " + timeout + "s"))) {
+            logger.info("Asynchronous query timed out after " + timeout + "s");
+            if (connection.interruptOnCancel) {
+              interrupt();
+            }
+          }
+        }
+      }, timeout, TimeUnit.SECONDS);
+      future.addListener(new MapDResultListener() {
+        @Override
+        public void onResult(ResultSet rs) {
+          timer.cancel(false);
+        }
+
+        @Override
+        public void onError(SQLException ex) {
+          timer.cancel(false);
+        }
+      });
+    }
+    final MapDResultCache cache = connection.resultCache;
+    if (cache == null || !MapDResultCache.isQuery(afterFnSQL)) {
+      pool.sqlExecute(session, afterFnSQL + ";", originalSql, future, executed(originalSql, null, 0, null));
+      return future;
+    }
+    // the cache checks table epochs on the server, keep that off the caller's thread
+    MapDAsyncClientPool.getCompletions().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          lookUp();
+        } catch (RuntimeException ex) {
+          future.fail(new SQLException("Query failed : " + ex.toString()));
+        }
+      }
+
+      private void lookUp() {
+        String cacheKey = MapDResultCache.key(connection.db, afterFnSQL);
+        TQueryResult cached = cache.get(session, cacheKey);
+        if (cached != null) {
+          connection.getMetrics().recordResultCacheHit();
+          try {
+            MapDResultSet rs = new MapDResultSet(cached, originalSql);
+            rs.setMetrics(connection.getMetrics());
+            future.complete(rs);
+          } catch (SQLException ex) {
+            future.fail(ex);
+          }
+          return;
+        }
+        long cacheGeneration = cache.getGeneration();
+        Map<String, Integer> epochs = cache.snapshot(session, afterFnSQL);
+        pool.sqlExecute(session, afterFnSQL + ";", originalSql, future,
+                executed(originalSql, cacheKey, cacheGeneration, epochs));
+      }
+    });
+    return future;
+  }
+
+  /**
+   * The bookkeeping executeQuery does after a query, for the async path.
+   */
+  private MapDAsyncClientPool.Executed executed(final String sql, final String cacheKey, final long cacheGeneration,
+          final Map<String, Integer> epochs) {
+    return new MapDAsyncClientPool.Executed() {
+      @Override
+      public void executed(TQueryResult result) {
+        connection.statementExecuted(sql);
+        if (result != null && epochs != null) {
+          connection.resultCache.put(cacheKey, cacheGeneration, epochs, result);
+        }
+      }
+    };
+  }
+
+  private ScheduledFuture<?> startExecution() {
+    cancelled = false;
+    timedOut = false;
+    lastElapsedTimeMs = System.currentTimeMillis();
+    final int current = limit.start();
+    run = current;
+    executing = true;
+    if (queryTimeout <= 0) {
+      return null;
+    }
+    final int timeout = queryTimeout;
+    return getTimeoutScheduler().schedule(new Runnable() {
+      @Override
+      public void run() {
+        timedOut = true;
+        if (limit.stop(current, "timed out after " + timeout + "s")) {
+          logger.info("Query timed out after " + timeout + "s, no longer waiting for it");
+          if (connection.interruptOnCancel) {
+            interrupt();
+          }
+        } else {
+          timedOut = false;
+        }
+      }
+    }, timeout, TimeUnit.SECONDS);
+  }
+
+  private void endExecution(ScheduledFuture<?> timer) {
+    executing = false;
+    if (timer != null) {
+      timer.cancel(false);
+    }
+    lastElapsedTimeMs = System.currentTimeMillis() - lastElapsedTimeMs;
+  }
+
+  private void recordTimings() {
+    lastExecutionTimeMs = sqlResult.execution_time_ms;
+    lastTotalTimeMs = sqlResult.total_time_ms;
+  }
+
+  private SQLException failure(String message) {
+    if (timedOut) {
+      return new SQLTimeoutException("Query timed out after " + queryTimeout + "s - " + message);
+    }
+    if (cancelled) {
+      return new SQLException("Query cancelled - " + message);
+    }
+    return new SQLException(message);
+  }
+
+  private void interrupt() {
+    try {
+      connection.interruptSession();
+    } catch (SQLException ex) {
+      logger.warn("Could not interrupt query - " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Server side execution time of the last query in ms, -1 before the first.
+   */
+  public long getLastExecutionTimeMs() {
+    return lastExecutionTimeMs;
+  }
+
+  /**
+   * Server side time including parse and result serialization of the last
+   * query in ms, -1 before the first.
+   */
+  public long getLastTotalTimeMs() {
+    return lastTotalTimeMs;
+  }
+
+  /**
+   * Wall clock time the last call spent waiting on the server in ms.
+   */
+  public long getLastElapsedTimeMs() {
+    return lastElapsedTimeMs;
+  }
+
+  private String addLimit(String sql) {
     if (maxRows > 0) {
       // add limit to sql call if it doesn't already have one and is a select
       String[] tokens = sql.toLowerCase().split(" ", 3);
@@ -60,19 +337,7 @@ public class MapDStatement implements java.sql.Statement {
         }
       }
     }
-    logger.debug("sql is :'" + sql + "'");
-    String afterFnSQL = fnReplace(sql);
-    logger.debug("afterFnSQL is :'" + afterFnSQL + "'");
-    try {
-      sqlResult = client.sql_execute(session, afterFnSQL + ";", true, null, -1, -1);
-    } catch (TMapDException ex) {
-      throw new SQLException("Query failed : " + ex.getError_msg());
-    } catch (TException ex) {
-      throw new SQLException("Query failed : " + ex.toString());
-    }
-
-    currentRS = new MapDResultSet(sqlResult, sql);
-    return currentRS;
+    return sql;
   }
 
   @Override
@@ -82,12 +347,19 @@ public class MapDStatement implements java.sql.Statement {
       if (sql.trim().substring(0, 6).compareToIgnoreCase("CREATE") == 0){
           sql = sql.replace('"', ' ');
       }
-      sqlResult = client.sql_execute(session, sql + ";", true, null, -1, -1);
+      ScheduledFuture<?> timer = startExecution();
+      try {
+        sqlResult = limitedClient.sql_execute(session, sql + ";", true, null, -1, -1);
+      } finally {
+        endExecution(timer);
+        connection.statementExecuted(sql);
+      }
     } catch (TMapDException ex) {
-      throw new SQLException("Query failed : " + ex.getError_msg() + " sql was '" + sql + "'");
+      throw failure("Query failed : " + ex.getError_msg() + " sql was '" + sql + "'");
     } catch (TException ex) {
-      throw new SQLException("Query failed : " + ex.toString());
+      throw failure("Query failed : " + ex.toString());
     }
+    recordTimings();
 
     return sqlResult.row_set.columns.size();
   }
@@ -129,20 +401,38 @@ public class MapDStatement implements java.sql.Statement {
 
   @Override
   public int getQueryTimeout() throws SQLException { //logger.debug("Entered");
-    //TODO MAT have overloaded this option to allow for internal time comparisson
-    return (int) sqlResult.execution_time_ms;
+    return queryTimeout;
   }
 
+  /**
+   * Enforced by the driver: once the timeout expires the call stops waiting
+   * and throws SQLTimeoutException, while the server runs the query to the
+   * end. With the interruptOnCancel connection property the server is also
+   * interrupted, see MapDConnection.interruptSession for what that stops.
+   */
   @Override
   public void setQueryTimeout(int seconds) throws SQLException { //logger.debug("Entered");
+    if (seconds < 0) {
+      throw new SQLException("Query timeout can not be negative");
+    }
     queryTimeout = seconds;
   }
 
+  /**
+   * Stops waiting for the running query, from another thread; the
+   * executing call throws "Query cancelled". The server only stops the query
+   * with the interruptOnCancel connection property, see
+   * MapDConnection.interruptSession for what that stops.
+   */
   @Override
   public void cancel() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (!executing) {
+      return;
+    }
+    cancelled = true;
+    if (limit.stop(run, "cancelled") && connection.interruptOnCancel) {
+      connection.interruptSession();
+    }
   }
 
   @Override
@@ -363,16 +653,15 @@ public class MapDStatement implements java.sql.Statement {
 
   @Override
   public <T> T unwrap(Class<T> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("MapDStatement is not a wrapper for " + iface.getName());
   }
 
   @Override
   public boolean isWrapperFor(Class<?> iface) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return iface.isInstance(this);
   }
 
   private static final Pattern QUARTER = Pattern.compile("\\sQUARTER\\(([^\\{]*?)",
@@ -383,36 +672,47 @@ public class MapDStatement implements java.sql.Statement {
           Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
   private static final Pattern WEEK = Pattern.compile("\\sWEEK\\(([^\\{]*?)",
           Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern QUARTER_TRUNC = Pattern.compile(
-          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) - 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern MONTH_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern YEAR_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1\\ \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern MINUTE_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern SECOND_TRUNC = Pattern.compile(
-          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\) \\+  EXTRACT\\(SECOND FROM .*?\\) \\* INTERVAL '1' SECOND\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern YEAR1_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern QUARTER1_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern WEEK_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+ \\(\\-1 \\* \\( EXTRACT\\(ISODOW FROM .*?\\) \\- 1\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
+  static final String QUARTER_TRUNC_REGEX
+          = "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) - 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)";
+  private static final Pattern QUARTER_TRUNC = Pattern.compile(QUARTER_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  static final String MONTH_TRUNC_REGEX
+          = "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)";
+  private static final Pattern MONTH_TRUNC = Pattern.compile(MONTH_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  static final String YEAR_TRUNC_REGEX
+          = "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1\\ \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)";
+  private static final Pattern YEAR_TRUNC = Pattern.compile(YEAR_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  static final String MINUTE_TRUNC_REGEX
+          = "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\)";
+  private static final Pattern MINUTE_TRUNC = Pattern.compile(MINUTE_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  static final String SECOND_TRUNC_REGEX
+          = "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\) \\+  EXTRACT\\(SECOND FROM .*?\\) \\* INTERVAL '1' SECOND\\)";
+  private static final Pattern SECOND_TRUNC = Pattern.compile(SECOND_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  static final String YEAR1_TRUNC_REGEX
+          = "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)";
+  private static final Pattern YEAR1_TRUNC = Pattern.compile(YEAR1_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  static final String QUARTER1_TRUNC_REGEX
+          = "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)";
+  private static final Pattern QUARTER1_TRUNC = Pattern.compile(QUARTER1_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  static final String WEEK_TRUNC_REGEX
+          = "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+ \\(\\-1 \\* \\( EXTRACT\\(ISODOW FROM .*?\\) \\- 1\\)\\) \\* INTERVAL '1' DAY\\)";
+  private static final Pattern WEEK_TRUNC = Pattern.compile(WEEK_TRUNC_REGEX, Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Rewrites the JDBC/ODBC style date functions BI tools emit into MapD SQL.
+   */
   public static String fnReplace(String sql) {
+    return MapDEscapeRewriter.rewrite(sql);
+  }
+
+  /**
+   * Original regex implementation of fnReplace. MapDEscapeRewriter falls back
+   * to it for nested calls and it serves as the reference for its output.
+   */
+  public static String fnReplaceRegex(String sql) {
     // need to iterate as each reduction of string opens up a anew match
     String start;
     do {
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.mapd.jdbc.MapDStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the regex fnReplace with the scanner based rewrite on Tableau
+ * style generated SQL. No server needed.
+ */
+public class EscapeRewriteBenchmark {
+
+  final static Logger logger = LoggerFactory.getLogger(EscapeRewriteBenchmark.class);
+
+  static final String MONTH_TRUNC
+          = "(CAST(\"flights\".\"dep_timestamp\" AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM \"flights\".\"dep_timestamp\") - 1))) * INTERVAL '1' DAY)";
+  static final String QUARTER_TRUNC
+          = "(((CAST(\"flights\".\"dep_timestamp\" AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM \"flights\".\"dep_timestamp\") - 1))) * INTERVAL '1' DAY) +  FLOOR((-1 * ( EXTRACT(MONTH FROM \"flights\".\"dep_timestamp\") - 1))) * INTERVAL '1' MONTH) +  FLOOR((3 * ( FLOOR( EXTRACT(QUARTER FROM \"flights\".\"dep_timestamp\")) - 1))) * INTERVAL '1' MONTH)";
+
+  static final String[] QUERIES = {
+    // plain aggregate, nothing to rewrite
+    "SELECT \"flights\".\"carrier_name\" AS \"carrier_name\", SUM(\"flights\".\"arrdelay\") AS \"sum_arrdelay_ok\" FROM \"flights\" "
+    + "WHERE (\"flights\".\"origin_state\" IN ('CA', 'NV', 'OR', 'WA')) GROUP BY \"flights\".\"carrier_name\" "
+    + "ORDER BY \"sum_arrdelay_ok\" DESC",
+    // date part functions
+    "SELECT QUARTER(\"flights\".\"dep_timestamp\") AS \"qr_dep_timestamp_ok\", WEEK(\"flights\".\"dep_timestamp\") AS "
+    + "\"wk_dep_timestamp_ok\", DAYOFWEEK(\"flights\".\"dep_timestamp\") AS \"dw\", COUNT(*) AS \"cnt\" FROM \"flights\" "
+    + "GROUP BY QUARTER(\"flights\".\"dep_timestamp\"), WEEK(\"flights\".\"dep_timestamp\"), DAYOFWEEK(\"flights\".\"dep_timestamp\")",
+    // date truncation expansions
+    "SELECT " + MONTH_TRUNC + " AS \"tmn_dep_timestamp_ok\", " + QUARTER_TRUNC + " AS \"tqr_dep_timestamp_ok\", "
+    + "AVG(\"flights\".\"depdelay\") AS \"avg_depdelay_ok\" FROM \"flights\" WHERE \"flights\".\"distance\" > 100 GROUP BY "
+    + MONTH_TRUNC + ", " + QUARTER_TRUNC
+  };
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+    for (String sql : QUERIES) {
+      if (!MapDStatement.fnReplaceRegex(sql).equals(MapDStatement.fnReplace(sql))) {
+        logger.error("Rewrite output differs for " + sql);
+        System.exit(1);
+      }
+    }
+
+    // warm up both paths
+    run(iterations / 10, true, false);
+    run(iterations / 10, false, false);
+    run(iterations / 10, false, true);
+
+    long regex = run(iterations, true, false);
+    long uncached = run(iterations, false, false);
+    long cached = run(iterations, false, true);
+
+    System.out.println(String.format("%d queries x %d iterations", QUERIES.length, iterations));
+    System.out.println(String.format("regex fnReplace        %8.2f us/query", regex / 1000.0 / iterations
+            / QUERIES.length));
+    System.out.println(String.format("scanner, cache missed  %8.2f us/query", uncached / 1000.0 / iterations
+            / QUERIES.length));
+    System.out.println(String.format("scanner, cache hit     %8.2f us/query", cached / 1000.0 / iterations
+            / QUERIES.length));
+  }
+
+  private static long run(int iterations, boolean regex, boolean cached) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (String sql : QUERIES) {
+        // a unique trailing comment defeats the rewrite cache
+        String q = cached ? sql : sql + " -- " + i;
+        String out = regex ? MapDStatement.fnReplaceRegex(q) : MapDStatement.fnReplace(q);
+        checksum += out.length();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    logger.debug("checksum " + checksum);
+    return elapsed;
+  }
+}
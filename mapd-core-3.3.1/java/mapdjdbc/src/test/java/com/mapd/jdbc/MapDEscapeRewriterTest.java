@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The scanner rewrite must give exactly what the regex fnReplace gives.
+ */
+public class MapDEscapeRewriterTest {
+
+  private static final String TS = "\"flights\".\"dep_timestamp\"";
+
+  private static final String MONTH_TRUNC
+          = "(CAST(" + TS + " AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM " + TS + ") - 1))) * INTERVAL '1' DAY)";
+  private static final String YEAR_TRUNC
+          = "((CAST(" + TS + " AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM " + TS + ") - 1))) * INTERVAL '1' DAY) +  "
+          + "FLOOR((-1 * ( EXTRACT(MONTH FROM " + TS + ") - 1))) * INTERVAL '1' MONTH)";
+  private static final String QUARTER_TRUNC
+          = "(" + YEAR_TRUNC + " +  FLOOR((3 * ( FLOOR( EXTRACT(QUARTER FROM " + TS + ")) - 1))) * INTERVAL '1' MONTH)";
+  private static final String MINUTE_TRUNC
+          = "((CAST(" + TS + " AS DATE) +  EXTRACT(HOUR FROM " + TS + ") * INTERVAL '1' HOUR) +  EXTRACT(MINUTE FROM "
+          + TS + ") * INTERVAL '1' MINUTE)";
+  private static final String SECOND_TRUNC
+          = "(" + MINUTE_TRUNC + " +  EXTRACT(SECOND FROM " + TS + ") * INTERVAL '1' SECOND)";
+  private static final String YEAR1_TRUNC
+          = "(CAST(" + TS + " AS DATE) +  FLOOR((-1 * ( EXTRACT(DOY FROM " + TS + ") - 1))) * INTERVAL '1' DAY)";
+  private static final String WEEK_TRUNC
+          = "(CAST(" + TS + " AS DATE) + (-1 * ( EXTRACT(ISODOW FROM " + TS + ") - 1)) * INTERVAL '1' DAY)";
+
+  private static final String[] CASES = {
+    // nothing to rewrite
+    "SELECT COUNT(*) FROM flights",
+    "SELECT carrier_name, SUM(arrdelay) FROM flights WHERE origin_state IN ('CA', 'NV') GROUP BY carrier_name",
+    // date part functions, any case, any whitespace before the name
+    "SELECT QUARTER(dep_timestamp), WEEK(dep_timestamp) FROM flights",
+    "SELECT quarter(dep_timestamp),\tdayofyear(dep_timestamp),\ndayofweek(dep_timestamp) FROM flights",
+    "SELECT DayOfWeek(" + TS + ") AS dw, COUNT(*) FROM flights GROUP BY DayOfWeek(" + TS + ")",
+    // no whitespace before the name, or only part of a longer name
+    "SELECT x,WEEK(dep_timestamp) FROM flights",
+    "SELECT BIWEEK(dep_timestamp), MYQUARTER(dep_timestamp) FROM flights",
+    "SELECT WEEKDAY(dep_timestamp) FROM flights",
+    // inside string literals and quoted identifiers, rewritten all the same
+    "SELECT ' QUARTER(x)' AS label, \" WEEK(\" FROM flights",
+    "SELECT 'it''s a WEEK(' FROM flights WHERE name = ' DAYOFYEAR(y)'",
+    // inside comments
+    "SELECT a -- QUARTER(b)\nFROM flights",
+    "SELECT a /* WEEK(b) DAYOFWEEK(c) */ FROM flights",
+    "SELECT a /* " + MONTH_TRUNC + " */ FROM flights",
+    // nested calls, some of which only match after an earlier rewrite
+    "SELECT QUARTER(WEEK(dep_timestamp)) FROM flights",
+    "SELECT WEEK( QUARTER(dep_timestamp)) FROM flights",
+    "SELECT QUARTER( DAYOFYEAR( DAYOFWEEK( WEEK(dep_timestamp)))) FROM flights",
+    "SELECT  WEEK( WEEK( WEEK(x))) FROM flights",
+    "SELECT DAYOFWEEK(QUARTER(x)), QUARTER(DAYOFWEEK(x)) FROM flights",
+    // date truncation expansions
+    "SELECT " + MONTH_TRUNC + " AS tmn FROM flights GROUP BY " + MONTH_TRUNC,
+    "SELECT " + QUARTER_TRUNC + " AS tqr, " + YEAR_TRUNC + " AS tyr FROM flights",
+    "SELECT " + SECOND_TRUNC + ", " + MINUTE_TRUNC + " FROM flights",
+    "SELECT " + YEAR1_TRUNC + ", " + WEEK_TRUNC + " FROM flights",
+    "SELECT " + MONTH_TRUNC.toLowerCase() + " FROM flights",
+    // truncations mixed with date part functions
+    "SELECT QUARTER(" + TS + "), " + QUARTER_TRUNC + ", WEEK(" + TS + ") FROM flights",
+    "SELECT (CAST(" + TS + " AS DATE) +  FLOOR((-1 * ( DAYOFYEAR(" + TS + ") - 1))) * INTERVAL '1' DAY) FROM flights",
+    // truncation inside a literal
+    "SELECT '" + MONTH_TRUNC.replace("'", "''") + "' FROM flights",
+    // incomplete truncation templates
+    "SELECT (CAST(" + TS + " AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM " + TS + ") - 1))) * INTERVAL '1' MONTH)",
+    "SELECT (CAST(f(x) AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM x) - 1))) * INTERVAL '1' DAY)",
+    "SELECT CAST(x AS DATE) * INTERVAL '1' DAY"
+  };
+
+  @Test
+  public void matchesRegexOnEscapeForms() {
+    for (String sql : CASES) {
+      assertEquals(sql, MapDStatement.fnReplaceRegex(sql), MapDEscapeRewriter.rewrite(sql));
+    }
+  }
+
+  @Test
+  public void rewritesDatePartFunctions() {
+    assertEquals("SELECT EXTRACT(QUARTER FROM x), EXTRACT(WEEK FROM x) FROM t",
+            MapDEscapeRewriter.rewrite("SELECT QUARTER(x), WEEK(x) FROM t"));
+    assertEquals("SELECT  DATE_TRUNC(MONTH, " + TS + ") FROM t",
+            MapDEscapeRewriter.rewrite("SELECT " + MONTH_TRUNC + " FROM t"));
+  }
+
+  @Test
+  public void returnsSameResultFromCache() {
+    String sql = "SELECT QUARTER(x) FROM t";
+    String first = MapDEscapeRewriter.rewrite(sql);
+    assertEquals(first, MapDEscapeRewriter.rewrite(sql));
+    assertSame(first, MapDEscapeRewriter.rewrite(sql));
+  }
+
+  @Test
+  public void matchesRegexOnRandomCombinations() {
+    String[] pieces = {" QUARTER(", " WEEK(", " DAYOFYEAR(", " DAYOFWEEK(", "QUARTER(", " x", ")", "(", ",", "'",
+      "\"", "--", "\n", "/*", "*/", " ", MONTH_TRUNC, YEAR1_TRUNC, WEEK_TRUNC, "CAST(", " * INTERVAL '1' "};
+    Random random = new Random(42);
+    for (int n = 0; n < 2000; n++) {
+      StringBuilder sql = new StringBuilder("SELECT");
+      int count = 1 + random.nextInt(10);
+      for (int i = 0; i < count; i++) {
+        sql.append(pieces[random.nextInt(pieces.length)]);
+      }
+      String text = sql.toString();
+      assertEquals(text, MapDStatement.fnReplaceRegex(text), MapDEscapeRewriter.rewrite(text));
+    }
+  }
+}
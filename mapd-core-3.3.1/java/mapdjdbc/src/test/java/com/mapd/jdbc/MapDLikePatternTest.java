@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MapDLikePatternTest {
+
+  @Test
+  public void nullAndPercentMatchEverything() {
+    assertTrue(MapDLikePattern.compile(null).matchesAll());
+    assertTrue(MapDLikePattern.compile("%").matchesAll());
+    assertTrue(MapDLikePattern.compile("%").matches("anything"));
+    assertFalse(MapDLikePattern.compile("%%").matchesAll());
+    assertTrue(MapDLikePattern.compile("%%").matches("anything"));
+  }
+
+  @Test
+  public void literalsCompareExactly() {
+    MapDLikePattern pattern = MapDLikePattern.compile("flights");
+    assertFalse(pattern.matchesAll());
+    assertTrue(pattern.matches("flights"));
+    assertFalse(pattern.matches("Flights"));
+    assertFalse(pattern.matches("flights_2008"));
+  }
+
+  @Test
+  public void wildcards() {
+    MapDLikePattern pattern = MapDLikePattern.compile("fl%_2008");
+    assertTrue(pattern.matches("flights_2008"));
+    assertTrue(pattern.matches("fl_2008"));
+    assertFalse(pattern.matches("fl2008"));
+    assertFalse(pattern.matches("xflights_2008"));
+    assertTrue(MapDLikePattern.compile("a_c").matches("abc"));
+    assertFalse(MapDLikePattern.compile("a_c").matches("abbc"));
+    assertTrue(MapDLikePattern.compile("%\n%").matches("line\nbreak"));
+  }
+
+  @Test
+  public void escapedWildcardsAreLiterals() {
+    assertTrue(MapDLikePattern.compile("a\\_b").matches("a_b"));
+    assertFalse(MapDLikePattern.compile("a\\_b").matches("axb"));
+    assertTrue(MapDLikePattern.compile("100\\%%").matches("100% done"));
+    assertFalse(MapDLikePattern.compile("100\\%%").matches("1000 done"));
+  }
+
+  @Test
+  public void regexCharactersAreLiterals() {
+    assertTrue(MapDLikePattern.compile("a.b%").matches("a.bc"));
+    assertFalse(MapDLikePattern.compile("a.b%").matches("axbc"));
+    assertTrue(MapDLikePattern.compile("[x]%\\E").matches("[x]yz\\E"));
+  }
+}
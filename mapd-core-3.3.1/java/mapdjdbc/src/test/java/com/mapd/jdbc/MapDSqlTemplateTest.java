@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.jdbc;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MapDSqlTemplateTest {
+
+  private static String bind(MapDSqlTemplate template, String... values) {
+    int length = 0;
+    for (String value : values) {
+      length += value.length();
+    }
+    return template.bind(values, length);
+  }
+
+  @Test
+  public void findsPlaceholdersOutsideQuotesAndComments() {
+    assertEquals(Arrays.asList(7), MapDSqlTemplate.findPlaceholders("SELECT ? FROM t"));
+    assertEquals(Arrays.asList(38), MapDSqlTemplate.findPlaceholders("SELECT * FROM t WHERE a = '?' AND b = ?"));
+    assertEquals(Arrays.asList(37), MapDSqlTemplate.findPlaceholders("SELECT 'it''s ?', \"col?\" FROM t -- ?\n?"));
+    assertEquals(Arrays.asList(21), MapDSqlTemplate.findPlaceholders("SELECT /* ? */ a, b, ? FROM t"));
+    assertTrue(MapDSqlTemplate.findPlaceholders("SELECT 'unterminated ?").isEmpty());
+    assertTrue(MapDSqlTemplate.findPlaceholders("SELECT a /* unterminated ?").isEmpty());
+  }
+
+  @Test
+  public void bindsValuesBetweenFragments() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("INSERT INTO t VALUES (?, ?, '?')");
+    assertEquals(2, template.getParameterCount());
+    assertTrue(template.isEscaped());
+    assertEquals("INSERT INTO t VALUES (1, 'a', '?')", bind(template, "1", "'a'"));
+  }
+
+  @Test
+  public void rewritesEscapesAtCompileTime() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("SELECT QUARTER(d) FROM t WHERE a = ?");
+    assertTrue(template.isEscaped());
+    assertEquals("SELECT EXTRACT(QUARTER FROM d) FROM t WHERE a = 5", bind(template, "5"));
+  }
+
+  @Test
+  public void rewritesProbeQueries() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("SELECT a, ? FROM t WHERE 1=0");
+    assertEquals("SELECT a, 1 FROM t LIMIT 1 ", bind(template, "1"));
+  }
+
+  @Test
+  public void rewritesProbeQueriesContainingTheMarker() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("SELECT '\uFFFF', ? FROM t WHERE 1=0");
+    assertFalse(template.isEscaped());
+    assertEquals(1, template.getParameterCount());
+    assertEquals("SELECT '\uFFFF', 1 FROM t LIMIT 1 ", bind(template, "1"));
+  }
+
+  @Test
+  public void sharesCompiledTemplates() {
+    String sql = "SELECT * FROM t WHERE a = ? AND b = ?";
+    assertSame(MapDSqlTemplate.compile(sql), MapDSqlTemplate.compile(sql));
+    assertEquals(sql, MapDSqlTemplate.compile(sql).getSql());
+  }
+
+  @Test
+  public void quotesLiterals() {
+    assertEquals("'abc'", MapDSqlTemplate.quote("abc"));
+    assertEquals("'it''s'", MapDSqlTemplate.quote("it's"));
+    assertEquals("''''''", MapDSqlTemplate.quote("''"));
+  }
+}
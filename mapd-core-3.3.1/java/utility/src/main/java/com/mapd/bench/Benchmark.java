@@ -17,12 +17,15 @@
 package com.mapd.bench;
 
 //STEP 1. Import required packages
+import com.mapd.jdbc.MapDMetrics;
+import com.mapd.jdbc.MapDStatement;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,10 +57,36 @@ public class Benchmark {
   private String lineDescriptor = "Q%02d, %8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8d,%8d,%8d,%8d,%8d,%8d";
 
   public static void main(String[] args) {
+    // "load" runs the queries from many clients at once instead, see LoadGenerator
+    if (args.length > 0 && args[0].equals("load")) {
+      LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     Benchmark bm = new Benchmark();
     bm.doWork(args, 1);
   }
 
+  /**
+   * Splits a query file line, "sql", expected result count, into
+   * {sql, expected}.
+   */
+  static String[] parseQueryLine(String line) {
+    String expected = "0";
+    String sqlQuery = null;
+    // find the last comma and then grab the rest as sql
+    for (int i = line.length(); i > 0; i--){
+      if (line.charAt(i-1) == ',') {
+        // found the comma
+        expected = line.substring(i).trim();
+        sqlQuery = line.substring(0, i-1).trim().substring(1);
+        break;
+      }
+    }
+    // remove final "
+    sqlQuery = sqlQuery.substring(0, sqlQuery.length()-1);
+    return new String[]{sqlQuery, expected};
+  }
+
   void doWork(String[] args, int query) {
 
     //Grab parameters from args
@@ -67,6 +96,7 @@ public class Benchmark {
     // parm3 optional DB URL
     // parm4 optionsl user
     // parm5 optional passwd
+    // or "load" and the LoadGenerator options
     int iterations = Integer.valueOf(args[0]);
     logger.debug("Iterations per query is " + iterations);
 
@@ -98,19 +128,9 @@ public class Benchmark {
 
       while ((sCurrentLine = br.readLine()) != null) {
 
-        int expected=0;
-        String sqlQuery = null;
-        // find the last comma and then grab the rest as sql
-        for (int i = sCurrentLine.length(); i > 0; i--){
-          if (sCurrentLine.charAt(i-1) == ',') {
-            // found the comma
-            expected = Integer.valueOf(sCurrentLine.substring(i).trim());
-            sqlQuery = sCurrentLine.substring(0, i-1).trim().substring(1);
-            break;
-          }
-        }
-        // remove final "
-        sqlQuery = sqlQuery.substring(0, sqlQuery.length()-1);
+        String[] parsed = parseQueryLine(sCurrentLine);
+        String sqlQuery = parsed[0];
+        int expected = Integer.valueOf(parsed[1]);
 
         System.out.println(String.format("Q%02d %s", qCount, sqlQuery));
 
@@ -168,14 +188,13 @@ public class Benchmark {
 
         // gather internal execute time for MapD as we are interested in that
         if (driver.equals(JDBC_DRIVER)){
-          executeTime = stmt.getQueryTimeout();
+          executeTime = stmt.unwrap(MapDStatement.class).getLastExecutionTimeMs();
           jdbcTime = (System.currentTimeMillis() - timer) - executeTime;
         } else {
           jdbcTime = (System.currentTimeMillis() - timer);
           executeTime = 0;
         }
-        // this is fake to get our intenal execute time.
-        logger.debug("Query Timeout/AKA internal Execution Time was " + stmt.getQueryTimeout() + " ms Elapsed time in JVM space was " + (System.currentTimeMillis() - timer) + "ms");
+        logger.debug("Internal Execution Time was " + executeTime + " ms Elapsed time in JVM space was " + (System.currentTimeMillis() - timer) + "ms");
 
         timer = System.currentTimeMillis();
         //Extract data from result set
@@ -212,6 +231,10 @@ public class Benchmark {
         stmt.close();
       }
       totalTime = System.currentTimeMillis() - startTime;
+      if (driver.equals(JDBC_DRIVER)) {
+        // server / network / decode / iteration split for the whole run
+        logger.debug("Query " + queryNum + " " + conn.unwrap(MapDMetrics.class));
+      }
       conn.close();
     } catch (SQLException se) {
       //Handle errors for JDBC
@@ -17,6 +17,7 @@
 package com.mapd.bench;
 
 //STEP 1. Import required packages
+import com.mapd.jdbc.MapDStatement;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -210,15 +211,14 @@ public class BenchmarkCloud {
 
         // gather internal execute time for MapD as we are interested in that
         if (driver.equals(JDBC_DRIVER)) {
-          executeTime = stmt.getQueryTimeout();
+          executeTime = stmt.unwrap(MapDStatement.class).getLastExecutionTimeMs();
           jdbcTime = (System.currentTimeMillis() - timer) - executeTime;
         } else {
           jdbcTime = (System.currentTimeMillis() - timer);
           executeTime = 0;
         }
-        // this is fake to get our intenal execute time.
         logger.debug(
-                "Query Timeout/AKA internal Execution Time was " + stmt.getQueryTimeout() + " ms Elapsed time in JVM space was " + (System.
+                "Internal Execution Time was " + executeTime + " ms Elapsed time in JVM space was " + (System.
                 currentTimeMillis() - timer) + "ms");
 
         timer = System.currentTimeMillis();
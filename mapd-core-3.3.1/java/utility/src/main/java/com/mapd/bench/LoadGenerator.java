@@ -0,0 +1,472 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.bench;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import static java.lang.System.exit;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the queries of a Benchmark query file from many clients at once, each
+ * on its own connection, picking a query at random for every request.
+ *
+ * In closed loop mode every thread is one user: it runs a query, waits a
+ * think time drawn from an exponential distribution around thinkMs, and runs
+ * the next, so the load falls as the server slows down. In open loop mode
+ * requests arrive at rate per second (Poisson arrivals) whatever the server
+ * does, and the threads take them in turn; latency is measured from when a
+ * request arrived, so time spent queued for a free client counts.
+ *
+ * Only requests that start in the measurement window, after the warmup, are
+ * reported, per query and in total.
+ */
+public class LoadGenerator {
+
+  final static Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+  private String headDescriptor = "%5s, %8s,%8s,%8s,%8s,%8s,%8s,%8s,%8s,%8s,%8s,%8s";
+  private String header = String.format(headDescriptor, "QRY", "Count", "Errors", "QPS", "L-Avg", "L-50%",
+          "L-90%", "L-95%", "L-99%", "L-Max", "W-Avg", "W-99%");
+  private String lineDescriptor = "%5s, %8d,%8d,%8.2f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f,%8.1f";
+
+  private CommandLine cmd = null;
+  private String url;
+  private String user;
+  private String passwd;
+  private boolean openLoop;
+  private long thinkMs;
+  private long measureStart;
+  private long measureEnd;
+  private final List<QueryType> queries = new ArrayList<QueryType>();
+  private final QueryType total = new QueryType("ALL", null, -1);
+  // open loop arrivals waiting for a client
+  private final BlockingQueue<Arrival> arrivals = new LinkedBlockingQueue<Arrival>();
+  private volatile boolean arrivalsDone = false;
+
+  /**
+   * Latency and wait samples, in ms, for one query of the file.
+   */
+  static class QueryType {
+
+    final String name;
+    final String sql;
+    final int expected;
+    private final DescriptiveStatistics latency = new DescriptiveStatistics();
+    private final DescriptiveStatistics wait = new DescriptiveStatistics();
+    private long errors = 0;
+
+    QueryType(String name, String sql, int expected) {
+      this.name = name;
+      this.sql = sql;
+      this.expected = expected;
+    }
+
+    synchronized void record(double latencyMs, double waitMs) {
+      latency.addValue(latencyMs);
+      wait.addValue(waitMs);
+    }
+
+    synchronized void error() {
+      errors++;
+    }
+
+    synchronized String line(String descriptor, double seconds) {
+      long count = latency.getN();
+      return String.format(descriptor, name, count, errors, count / seconds, mean(latency),
+              latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(95),
+              latency.getPercentile(99), latency.getMax(), mean(wait), wait.getPercentile(99));
+    }
+
+    private static double mean(DescriptiveStatistics stats) {
+      return stats.getN() == 0 ? Double.NaN : stats.getMean();
+    }
+  }
+
+  /**
+   * An open loop request, due at nanos.
+   */
+  static class Arrival {
+
+    final QueryType query;
+    final long nanos;
+
+    Arrival(QueryType query, long nanos) {
+      this.query = query;
+      this.nanos = nanos;
+    }
+  }
+
+  public static void main(String[] args) {
+    LoadGenerator lg = new LoadGenerator();
+    lg.doWork(args);
+  }
+
+  void doWork(String[] args) {
+    Options options = new Options();
+
+    options.addOption(Option.builder("f")
+            .hasArg()
+            .desc("File of queries, one per line in the Benchmark format: \"sql\", expected row count")
+            .longOpt("queryFile")
+            .required()
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("JDBC driver class (default " + Benchmark.JDBC_DRIVER + ")")
+            .longOpt("driver")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("JDBC URL (default " + Benchmark.DB_URL + ")")
+            .longOpt("url")
+            .build());
+    options.addOption(Option.builder("u")
+            .hasArg()
+            .desc("User")
+            .longOpt("user")
+            .build());
+    options.addOption(Option.builder("p")
+            .hasArg()
+            .desc("Password")
+            .longOpt("passwd")
+            .build());
+    options.addOption(Option.builder("t")
+            .hasArg()
+            .desc("Client threads, each with its own connection (default 1)")
+            .longOpt("threads")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("closed (each thread waits for its query and thinks before the next) or open (requests "
+                    + "arrive at --rate) (default closed)")
+            .longOpt("mode")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("Closed loop mean think time between a thread's queries in ms, 0 for none (default 0)")
+            .longOpt("thinkMs")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("Open loop arrivals per second")
+            .longOpt("rate")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("Seconds of load before measuring starts (default 10)")
+            .longOpt("warmup")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("Seconds measured (default 60)")
+            .longOpt("duration")
+            .build());
+    options.addOption(Option.builder()
+            .hasArg()
+            .desc("Seed for query choice, think times and arrivals (default random)")
+            .longOpt("seed")
+            .build());
+
+    CommandLineParser parser = new DefaultParser();
+
+    try {
+      cmd = parser.parse(options, args);
+    } catch (ParseException ex) {
+      logger.error(ex.getLocalizedMessage());
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("Benchmark load", options);
+      exit(0);
+    }
+
+    String driver = cmd.getOptionValue("driver", Benchmark.JDBC_DRIVER);
+    url = cmd.getOptionValue("url", Benchmark.DB_URL);
+    user = cmd.getOptionValue("user", Benchmark.USER);
+    passwd = cmd.getOptionValue("passwd", Benchmark.PASS);
+    int threads = Integer.valueOf(cmd.getOptionValue("threads", "1"));
+    String mode = cmd.getOptionValue("mode", "closed");
+    openLoop = mode.equals("open");
+    if (!openLoop && !mode.equals("closed")) {
+      logger.error("mode must be closed or open, not " + mode);
+      exit(1);
+    }
+    if (openLoop && !cmd.hasOption("rate")) {
+      logger.error("open loop mode needs a rate");
+      exit(1);
+    }
+    thinkMs = Long.valueOf(cmd.getOptionValue("thinkMs", "0"));
+    double rate = openLoop ? Double.valueOf(cmd.getOptionValue("rate")) : 0;
+    long warmup = Long.valueOf(cmd.getOptionValue("warmup", "10"));
+    long duration = Long.valueOf(cmd.getOptionValue("duration", "60"));
+    long seed = cmd.hasOption("seed") ? Long.valueOf(cmd.getOptionValue("seed")) : new Random().nextLong();
+
+    try {
+      Class.forName(driver);
+    } catch (ClassNotFoundException ex) {
+      logger.error("Could not load class " + driver + " " + ex.getMessage());
+      exit(1);
+    }
+    readQueries(cmd.getOptionValue("queryFile"));
+
+    System.out.println(String.format("Running %s loop load from %d threads, %s, %d s warmup, %d s measured",
+            openLoop ? "open" : "closed", threads, openLoop ? rate + " requests/s" : thinkMs + " ms mean think",
+            warmup, duration));
+
+    long start = System.nanoTime();
+    measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+    measureEnd = measureStart + TimeUnit.SECONDS.toNanos(duration);
+    final AtomicLong failedClients = new AtomicLong();
+    List<Thread> clients = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final Random random = new Random(seed + i + 1);
+      Thread client = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          if (!runClient(random)) {
+            failedClients.incrementAndGet();
+          }
+        }
+      }, "load-client-" + i);
+      client.start();
+      clients.add(client);
+    }
+    long unserved = 0;
+    if (openLoop) {
+      unserved = generateArrivals(rate, new Random(seed), start);
+    }
+    for (Thread client : clients) {
+      try {
+        client.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    double seconds = duration;
+    System.out.println(header);
+    for (QueryType query : queries) {
+      System.out.println(query.line(lineDescriptor, seconds));
+    }
+    System.out.println(total.line(lineDescriptor, seconds));
+    if (openLoop) {
+      System.out.println(String.format("offered %.2f requests/s, %d measured requests not started by the end",
+              rate, unserved));
+    }
+    if (failedClients.get() > 0) {
+      logger.error(failedClients.get() + " of " + threads + " clients could not connect");
+      exit(1);
+    }
+  }
+
+  private void readQueries(String queryFile) {
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new FileReader(queryFile));
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0) {
+          continue;
+        }
+        String[] query = Benchmark.parseQueryLine(line);
+        queries.add(new QueryType(String.format("Q%02d", queries.size() + 1), query[0], Integer.valueOf(query[1])));
+      }
+    } catch (FileNotFoundException ex) {
+      logger.error("Could not find file " + queryFile + " " + ex.getMessage());
+      exit(2);
+    } catch (IOException ex) {
+      logger.error("IO Exeception " + ex.getMessage());
+      exit(3);
+    } finally {
+      try {
+        if (br != null) {
+          br.close();
+        }
+      } catch (IOException ex) {
+      }
+    }
+    if (queries.isEmpty()) {
+      logger.error("No queries in " + queryFile);
+      exit(1);
+    }
+  }
+
+  /**
+   * Queues open loop arrivals until the measurement window ends and returns
+   * how many measured ones were left waiting for a client.
+   */
+  private long generateArrivals(double rate, Random random, long start) {
+    long due = start;
+    try {
+      while (true) {
+        due += (long) (exponential(random, 1.0 / rate) * 1e9);
+        if (due >= measureEnd) {
+          break;
+        }
+        QueryType query = queries.get(random.nextInt(queries.size()));
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        arrivals.add(new Arrival(query, due));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    arrivalsDone = true;
+    long unserved = 0;
+    // clients stop at the end of the window, drop what they did not get to
+    while (System.nanoTime() < measureEnd && !arrivals.isEmpty()) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    Arrival left;
+    while ((left = arrivals.poll()) != null) {
+      if (left.nanos >= measureStart) {
+        unserved++;
+      }
+    }
+    return unserved;
+  }
+
+  /**
+   * One client's loop, until the measurement window ends. Returns false if
+   * it could not connect.
+   */
+  private boolean runClient(Random random) {
+    Connection conn = null;
+    try {
+      conn = DriverManager.getConnection(url, user, passwd);
+      while (System.nanoTime() < measureEnd) {
+        QueryType query;
+        long due;
+        if (openLoop) {
+          Arrival arrival = arrivals.poll(10, TimeUnit.MILLISECONDS);
+          if (arrival == null) {
+            if (arrivalsDone) {
+              break;
+            }
+            continue;
+          }
+          query = arrival.query;
+          due = arrival.nanos;
+        } else {
+          query = queries.get(random.nextInt(queries.size()));
+          due = System.nanoTime();
+        }
+        long started = System.nanoTime();
+        boolean ok = runQuery(conn, query);
+        long finished = System.nanoTime();
+        if (!ok && conn.isClosed()) {
+          conn = DriverManager.getConnection(url, user, passwd);
+        }
+        if (due >= measureStart && due < measureEnd) {
+          if (ok) {
+            double waitMs = (started - due) / 1e6;
+            double latencyMs = (finished - due) / 1e6;
+            query.record(latencyMs, waitMs);
+            total.record(latencyMs, waitMs);
+          } else {
+            query.error();
+            total.error();
+          }
+        }
+        if (!openLoop && thinkMs > 0) {
+          long think = (long) (exponential(random, thinkMs) * 1e6);
+          TimeUnit.NANOSECONDS.sleep(Math.min(think, Math.max(0, measureEnd - System.nanoTime())));
+        }
+      }
+      return true;
+    } catch (SQLException ex) {
+      logger.error("Client failed - " + ex.toString());
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return true;
+    } finally {
+      try {
+        if (conn != null) {
+          conn.close();
+        }
+      } catch (SQLException ex) {
+      }
+    }
+  }
+
+  /**
+   * Runs query and reads all its rows, returning whether it succeeded with
+   * the expected row count.
+   */
+  private boolean runQuery(Connection conn, QueryType query) {
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery(query.sql);
+      int resultCount = 0;
+      while (rs.next()) {
+        rs.getObject(1);
+        resultCount++;
+      }
+      rs.close();
+      if (resultCount != query.expected) {
+        logger.debug("Expect " + query.expected + " actual " + resultCount + " for query " + query.sql);
+        return false;
+      }
+      return true;
+    } catch (SQLException ex) {
+      logger.debug("Query " + query.name + " failed - " + ex.toString());
+      return false;
+    } finally {
+      try {
+        if (stmt != null) {
+          stmt.close();
+        }
+      } catch (SQLException ex) {
+      }
+    }
+  }
+
+  private static double exponential(Random random, double mean) {
+    return -mean * Math.log(1 - random.nextDouble());
+  }
+}
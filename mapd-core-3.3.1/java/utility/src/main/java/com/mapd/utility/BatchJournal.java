@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only record of the batches an import has loaded, so a rerun after
+ * a failure can skip them. A batch is a run of rows of one reader's stream
+ * (the whole query, or one split range) named by its first row and row
+ * count, which only means the same thing again if the source returns rows
+ * in the same order every run.
+ *
+ * The first line names the job, a digest of whatever defines the rows, and
+ * a journal for a different job is refused. Each committed batch adds a
+ * line "stream firstRow rows" that is synced before the next; a line torn
+ * by a crash is ignored, and a batch loaded just before a crash may be
+ * loaded again.
+ */
+class BatchJournal {
+
+  final static Logger LOGGER = LoggerFactory.getLogger(BatchJournal.class);
+
+  private final File file;
+  // stream -> committed ranges from the journal, start -> end
+  private final Map<Integer, TreeMap<Long, Long>> committed = new HashMap<Integer, TreeMap<Long, Long>>();
+  private long rowsCommitted = 0;
+  private FileOutputStream out;
+
+  BatchJournal(String fileName, String job) throws IOException {
+    file = new File(fileName);
+    String header = "job " + digest(job);
+    boolean exists = file.exists() && file.length() > 0;
+    if (exists) {
+      read(header);
+    }
+    boolean torn = exists && !endsWithNewline();
+    out = new FileOutputStream(file, true);
+    if (!exists) {
+      write(header);
+    } else if (torn) {
+      // keep the next entry off the torn line
+      write("");
+    }
+  }
+
+  private void read(String header) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line = in.readLine();
+      if (!header.equals(line)) {
+        throw new IOException("Journal " + file + " belongs to a different import, remove it to start over");
+      }
+      while ((line = in.readLine()) != null) {
+        String[] parts = line.trim().split(" ");
+        if (parts.length != 3) {
+          continue;
+        }
+        try {
+          add(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (NumberFormatException ex) {
+          // torn write
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private boolean endsWithNewline() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(raf.length() - 1);
+      return raf.read() == '\n';
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void add(int stream, long first, long rows) {
+    TreeMap<Long, Long> ranges = committed.get(stream);
+    if (ranges == null) {
+      ranges = new TreeMap<Long, Long>();
+      committed.put(stream, ranges);
+    }
+    long end = first + rows;
+    // merge with neighbours so a run of batches is skipped in one go
+    Map.Entry<Long, Long> before = ranges.floorEntry(first);
+    if (before != null && before.getValue() >= first) {
+      first = before.getKey();
+      end = Math.max(end, before.getValue());
+      ranges.remove(before.getKey());
+    }
+    Map.Entry<Long, Long> after = ranges.ceilingEntry(first);
+    while (after != null && after.getKey() <= end) {
+      end = Math.max(end, after.getValue());
+      ranges.remove(after.getKey());
+      after = ranges.ceilingEntry(first);
+    }
+    ranges.put(first, end);
+    rowsCommitted += rows;
+  }
+
+  private void write(String line) throws IOException {
+    out.write((line + "\n").getBytes("UTF-8"));
+    out.flush();
+    out.getFD().sync();
+  }
+
+  /**
+   * Rows committed by earlier runs.
+   */
+  synchronized long getRowsCommitted() {
+    return rowsCommitted;
+  }
+
+  /**
+   * The first range of stream committed by an earlier run that ends after
+   * row, as {start, end}, or null.
+   */
+  synchronized long[] nextRange(int stream, long row) {
+    TreeMap<Long, Long> ranges = committed.get(stream);
+    if (ranges == null) {
+      return null;
+    }
+    Map.Entry<Long, Long> range = ranges.floorEntry(row);
+    if (range == null || range.getValue() <= row) {
+      range = ranges.ceilingEntry(row);
+    }
+    return range == null ? null : new long[]{range.getKey(), range.getValue()};
+  }
+
+  synchronized void committed(int stream, long firstRow, int rows) throws IOException {
+    write(stream + " " + firstRow + " " + rows);
+  }
+
+  synchronized void close() {
+    try {
+      out.close();
+    } catch (IOException ex) {
+      LOGGER.debug("Closing journal " + file + " failed - " + ex.toString());
+    }
+  }
+
+  /**
+   * Closes and removes the journal once the import has finished.
+   */
+  synchronized void delete() {
+    close();
+    if (!file.delete()) {
+      LOGGER.error("Could not remove journal " + file);
+    }
+  }
+
+  private static String digest(String job) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      return new BigInteger(1, md.digest(job.getBytes("UTF-8"))).toString(16);
+    } catch (NoSuchAlgorithmException ex) {
+      return Integer.toHexString(job.hashCode());
+    } catch (IOException ex) {
+      return Integer.toHexString(job.hashCode());
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes SQLImporter batches in bytes rather than rows, so narrow and wide
+ * tables both send batches of about the same size. The byte target follows
+ * the server: after every few loads the load throughput (bytes per second of
+ * load call) is compared with the previous window, and the target keeps
+ * stepping the same way while that holds up and turns round when it drops.
+ * A load slower than maxLoadMs always shrinks it. The target stays between
+ * minBytes and maxBytes. Shared by all reader threads.
+ */
+class BatchSizer {
+
+  final static Logger LOGGER = LoggerFactory.getLogger(BatchSizer.class);
+
+  private static final int WINDOW = 4;
+  private static final double STEP = 1.25;
+  // throughput has to fall this much before the direction changes
+  private static final double NOISE = 0.95;
+
+  private final long minBytes;
+  private final long maxBytes;
+  private final long maxLoadNanos;
+  private long targetBytes;
+  private double step = STEP;
+  private double lastThroughput = 0;
+  private long windowBytes = 0;
+  private long windowNanos = 0;
+  private int windowLoads = 0;
+
+  BatchSizer(long targetBytes, long minBytes, long maxBytes, long maxLoadMs) {
+    this.minBytes = minBytes;
+    this.maxBytes = maxBytes;
+    this.maxLoadNanos = maxLoadMs * 1000000L;
+    this.targetBytes = Math.max(minBytes, Math.min(maxBytes, targetBytes));
+  }
+
+  /**
+   * Rows for the next batch, given the size of the batch just read.
+   */
+  synchronized int rowsFor(long batchBytes, int batchRows) {
+    double rowBytes = Math.max(1.0, (double) batchBytes / Math.max(1, batchRows));
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, targetBytes / rowBytes));
+  }
+
+  /**
+   * Called as each batch of bytes is loaded, taking nanos.
+   */
+  synchronized void loaded(long bytes, long nanos) {
+    if (nanos > maxLoadNanos) {
+      step = 1 / STEP;
+      lastThroughput = 0;
+      windowBytes = 0;
+      windowNanos = 0;
+      windowLoads = 0;
+      setTarget(targetBytes * step);
+      return;
+    }
+    windowBytes += bytes;
+    windowNanos += nanos;
+    if (++windowLoads < WINDOW) {
+      return;
+    }
+    double throughput = windowBytes * 1e9 / Math.max(1, windowNanos);
+    if (lastThroughput > 0 && throughput < lastThroughput * NOISE) {
+      step = 1 / step;
+    }
+    lastThroughput = throughput;
+    windowBytes = 0;
+    windowNanos = 0;
+    windowLoads = 0;
+    setTarget(targetBytes * step);
+  }
+
+  private void setTarget(double bytes) {
+    long target = Math.max(minBytes, Math.min(maxBytes, (long) bytes));
+    if (target != targetBytes) {
+      LOGGER.debug("Batch target now " + target + " bytes, load throughput " + (long) lastThroughput + " bytes/s");
+      targetBytes = target;
+    }
+  }
+
+  synchronized long getTargetBytes() {
+    return targetBytes;
+  }
+}
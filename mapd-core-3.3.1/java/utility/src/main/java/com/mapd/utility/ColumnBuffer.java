@@ -0,0 +1,496 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import com.mapd.jdbc.MapDBulkLoader;
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.scheme.StandardScheme;
+
+/**
+ * A TColumn backed by primitive arrays that can be refilled batch after
+ * batch. The subclass, and so the ResultSet getter, is picked once per
+ * source column from ResultSetMetaData; read() then appends the current row
+ * without boxing. DelimitedFileLoader fills buffers through each
+ * subclass's typed append method instead. write() sends the arrays in
+ * TColumn's standard encoding directly, so no List<Long> is ever built;
+ * other schemes (TTupleProtocol) get the lists filled in and go through the
+ * generated code.
+ */
+abstract class ColumnBuffer extends TColumn {
+
+  private static final TStruct COLUMN_STRUCT = new TStruct("TColumn");
+  private static final TField DATA_FIELD = new TField("data", TType.STRUCT, (short) 1);
+  private static final TField NULLS_FIELD = new TField("nulls", TType.LIST, (short) 2);
+  private static final TStruct DATA_STRUCT = new TStruct("TColumnData");
+  static final TField INT_COL_FIELD = new TField("int_col", TType.LIST, (short) 1);
+  static final TField REAL_COL_FIELD = new TField("real_col", TType.LIST, (short) 2);
+  static final TField STR_COL_FIELD = new TField("str_col", TType.LIST, (short) 3);
+
+  final int column;
+  boolean[] nullMask;
+  int size = 0;
+
+  ColumnBuffer(int column, int capacity) {
+    this.column = column;
+    nullMask = new boolean[capacity];
+  }
+
+  static ColumnBuffer forColumn(ResultSetMetaData md, int column, int capacity) throws SQLException {
+    switch (md.getColumnType(column)) {
+      case java.sql.Types.TINYINT:
+      case java.sql.Types.SMALLINT:
+      case java.sql.Types.INTEGER:
+      case java.sql.Types.BIGINT:
+      case java.sql.Types.BIT:  // deal with postgress treating boolean as bit... this will bite me
+      case java.sql.Types.BOOLEAN:
+        return new LongBuffer(column, capacity);
+
+      case java.sql.Types.TIME:
+        return new TimeBuffer(column, capacity) {
+          @Override
+          java.util.Date value(ResultSet rs) throws SQLException {
+            return rs.getTime(column);
+          }
+        };
+      case java.sql.Types.TIMESTAMP:
+        return new TimeBuffer(column, capacity) {
+          @Override
+          java.util.Date value(ResultSet rs) throws SQLException {
+            return rs.getTimestamp(column);
+          }
+        };
+      case java.sql.Types.DATE:
+        return new TimeBuffer(column, capacity) {
+          @Override
+          java.util.Date value(ResultSet rs) throws SQLException {
+            return rs.getDate(column);
+          }
+        };
+
+      case java.sql.Types.FLOAT:
+      case java.sql.Types.DECIMAL:
+      case java.sql.Types.DOUBLE:
+      case java.sql.Types.REAL:
+      case java.sql.Types.NUMERIC:
+        return new DoubleBuffer(column, capacity);
+
+      case java.sql.Types.NVARCHAR:
+      case java.sql.Types.VARCHAR:
+      case java.sql.Types.NCHAR:
+      case java.sql.Types.CHAR:
+      case java.sql.Types.LONGVARCHAR:
+      case java.sql.Types.LONGNVARCHAR:
+        return new StrBuffer(column, capacity);
+
+      default:
+        throw new AssertionError("Column type " + md.getColumnType(column) + " not Supported");
+    }
+  }
+
+  /**
+   * Appends the current row of rs.
+   */
+  abstract void read(ResultSet rs) throws SQLException;
+
+  abstract void appendNull();
+
+  /**
+   * Drops the rows after the first rows, e.g. a partly parsed one.
+   */
+  void truncate(int rows) {
+    size = Math.min(size, rows);
+  }
+
+  abstract void grow(int capacity);
+
+  /**
+   * Writes the one TColumnData list field this column uses.
+   */
+  abstract void writeData(TProtocol oprot) throws TException;
+
+  /**
+   * Fills in TColumnData's list for the generated serializer.
+   */
+  abstract TColumnData toData();
+
+  /**
+   * Makes room for one more row and returns its index.
+   */
+  final int next() {
+    if (size == nullMask.length) {
+      int capacity = Math.max(16, size * 2);
+      nullMask = Arrays.copyOf(nullMask, capacity);
+      grow(capacity);
+    }
+    return size++;
+  }
+
+  void reset() {
+    size = 0;
+  }
+
+  /**
+   * Roughly what this column adds to a load_table_binary_columnar request.
+   */
+  long byteSize() {
+    return size * 9L;
+  }
+
+  // MapDClientPool counts rows from the null list
+  @Override
+  public int getNullsSize() {
+    return size;
+  }
+
+  @Override
+  public void write(TProtocol oprot) throws TException {
+    if (oprot.getScheme() != StandardScheme.class) {
+      List<Boolean> nullList = new ArrayList<Boolean>(size);
+      for (int i = 0; i < size; i++) {
+        nullList.add(nullMask[i]);
+      }
+      data = toData();
+      nulls = nullList;
+      try {
+        super.write(oprot);
+      } finally {
+        data = null;
+        nulls = null;
+      }
+      return;
+    }
+    oprot.writeStructBegin(COLUMN_STRUCT);
+    oprot.writeFieldBegin(DATA_FIELD);
+    oprot.writeStructBegin(DATA_STRUCT);
+    writeData(oprot);
+    oprot.writeFieldStop();
+    oprot.writeStructEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldBegin(NULLS_FIELD);
+    oprot.writeListBegin(new TList(TType.BOOL, size));
+    for (int i = 0; i < size; i++) {
+      oprot.writeBool(nullMask[i]);
+    }
+    oprot.writeListEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldStop();
+    oprot.writeStructEnd();
+  }
+
+  /**
+   * Integer and boolean columns.
+   */
+  static class LongBuffer extends ColumnBuffer {
+
+    long[] values;
+
+    LongBuffer(int column, int capacity) {
+      super(column, capacity);
+      values = new long[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs) throws SQLException {
+      int row = next();
+      values[row] = rs.getLong(column);
+      nullMask[row] = rs.wasNull();
+    }
+
+    void append(long value) {
+      int row = next();
+      values[row] = value;
+      nullMask[row] = false;
+    }
+
+    @Override
+    void appendNull() {
+      int row = next();
+      values[row] = 0;
+      nullMask[row] = true;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void writeData(TProtocol oprot) throws TException {
+      oprot.writeFieldBegin(INT_COL_FIELD);
+      oprot.writeListBegin(new TList(TType.I64, size));
+      for (int i = 0; i < size; i++) {
+        oprot.writeI64(values[i]);
+      }
+      oprot.writeListEnd();
+      oprot.writeFieldEnd();
+    }
+
+    @Override
+    TColumnData toData() {
+      List<Long> list = new ArrayList<Long>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(values[i]);
+      }
+      TColumnData columnData = new TColumnData();
+      columnData.int_col = list;
+      return columnData;
+    }
+  }
+
+  /**
+   * TIME, TIMESTAMP and DATE, sent as seconds since the epoch.
+   */
+  abstract static class TimeBuffer extends LongBuffer {
+
+    TimeBuffer(int column, int capacity) {
+      super(column, capacity);
+    }
+
+    abstract java.util.Date value(ResultSet rs) throws SQLException;
+
+    @Override
+    void read(ResultSet rs) throws SQLException {
+      int row = next();
+      java.util.Date d = value(rs);
+      values[row] = d == null ? 0 : d.getTime() / 1000;
+      nullMask[row] = d == null;
+    }
+  }
+
+  static class DoubleBuffer extends ColumnBuffer {
+
+    double[] values;
+
+    DoubleBuffer(int column, int capacity) {
+      super(column, capacity);
+      values = new double[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs) throws SQLException {
+      int row = next();
+      values[row] = rs.getDouble(column);
+      nullMask[row] = rs.wasNull();
+    }
+
+    void append(double value) {
+      int row = next();
+      values[row] = value;
+      nullMask[row] = false;
+    }
+
+    @Override
+    void appendNull() {
+      int row = next();
+      values[row] = 0;
+      nullMask[row] = true;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void writeData(TProtocol oprot) throws TException {
+      oprot.writeFieldBegin(REAL_COL_FIELD);
+      oprot.writeListBegin(new TList(TType.DOUBLE, size));
+      for (int i = 0; i < size; i++) {
+        oprot.writeDouble(values[i]);
+      }
+      oprot.writeListEnd();
+      oprot.writeFieldEnd();
+    }
+
+    @Override
+    TColumnData toData() {
+      List<Double> list = new ArrayList<Double>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(values[i]);
+      }
+      TColumnData columnData = new TColumnData();
+      columnData.real_col = list;
+      return columnData;
+    }
+  }
+
+  /**
+   * String columns. Most have few distinct values, so each batch keeps a
+   * dictionary of the values it has seen: repeats share one String, and
+   * each distinct value is UTF-8 encoded once when the batch is written
+   * rather than once per row. That saves client memory and CPU only,
+   * str_col still carries every row and the bytes sent are the same. A
+   * column that goes past MapDBulkLoader.MAX_BATCH_DISTINCT values in a
+   * batch stops using the dictionary for good.
+   */
+  static class StrBuffer extends ColumnBuffer {
+
+    String[] values;
+    long chars = 0;
+    // dictionary index of each row, -1 for a row added without it
+    int[] codes;
+    private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private String[] distinct = new String[16];
+    private byte[][] encoded = null;
+
+    StrBuffer(int column, int capacity) {
+      super(column, capacity);
+      values = new String[capacity];
+      codes = new int[capacity];
+    }
+
+    @Override
+    void read(ResultSet rs) throws SQLException {
+      String value = rs.getString(column);
+      if (value == null) {
+        appendNull();
+      } else {
+        append(value);
+      }
+    }
+
+    void append(String value) {
+      int row = next();
+      int code = code(value);
+      values[row] = code < 0 ? value : distinct[code];
+      codes[row] = code;
+      nullMask[row] = false;
+      chars += value.length();
+    }
+
+    @Override
+    void appendNull() {
+      int row = next();
+      values[row] = "";
+      codes[row] = code("");
+      nullMask[row] = true;
+    }
+
+    private int code(String value) {
+      if (dictionary == null) {
+        return -1;
+      }
+      Integer code = dictionary.get(value);
+      if (code != null) {
+        return code;
+      }
+      int next = dictionary.size();
+      if (next == MapDBulkLoader.MAX_BATCH_DISTINCT) {
+        dictionary = null;
+        distinct = null;
+        encoded = null;
+        return -1;
+      }
+      if (next == distinct.length) {
+        distinct = Arrays.copyOf(distinct, next * 2);
+      }
+      distinct[next] = value;
+      dictionary.put(value, next);
+      return next;
+    }
+
+    @Override
+    void reset() {
+      super.reset();
+      chars = 0;
+      if (dictionary != null) {
+        dictionary.clear();
+        Arrays.fill(distinct, null);
+        encoded = null;
+      }
+    }
+
+    @Override
+    void truncate(int rows) {
+      for (int i = rows; i < size; i++) {
+        chars -= values[i].length();
+      }
+      super.truncate(rows);
+    }
+
+    @Override
+    long byteSize() {
+      // a length prefix and the null flag per value
+      return chars + size * 5L;
+    }
+
+    @Override
+    void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+      codes = Arrays.copyOf(codes, capacity);
+    }
+
+    @Override
+    void writeData(TProtocol oprot) throws TException {
+      // both encode a string as its UTF-8 bytes, so those can be written as binary
+      boolean cached = dictionary != null
+              && (oprot instanceof TBinaryProtocol || oprot instanceof TCompactProtocol);
+      if (cached && encoded == null) {
+        encoded = new byte[dictionary.size()][];
+      }
+      oprot.writeFieldBegin(STR_COL_FIELD);
+      oprot.writeListBegin(new TList(TType.STRING, size));
+      for (int i = 0; i < size; i++) {
+        if (cached && codes[i] >= 0) {
+          byte[] bytes = encoded[codes[i]];
+          if (bytes == null) {
+            bytes = utf8(values[i]);
+            encoded[codes[i]] = bytes;
+          }
+          oprot.writeBinary(ByteBuffer.wrap(bytes));
+        } else {
+          oprot.writeString(values[i]);
+        }
+      }
+      oprot.writeListEnd();
+      oprot.writeFieldEnd();
+    }
+
+    private static byte[] utf8(String value) {
+      try {
+        return value.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException ex) {
+        throw new AssertionError(ex);
+      }
+    }
+
+    @Override
+    TColumnData toData() {
+      TColumnData columnData = new TColumnData();
+      columnData.str_col = new ArrayList<String>(Arrays.asList(values).subList(0, size));
+      return columnData;
+    }
+  }
+}
@@ -0,0 +1,906 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import com.mapd.jdbc.MapDBulkLoader;
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnType;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import static java.lang.System.exit;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a delimited text file on this host into an existing MapD table,
+ * without staging it on the server for import_table.
+ *
+ * The file is memory mapped in chunks cut at line boundaries. Worker
+ * threads take chunks in turn and parse them straight from the mapped bytes
+ * into ColumnBuffers typed by the table's get_table_details, then hand full
+ * batches to a MapDBulkLoader which sends them with
+ * load_table_binary_columnar over its own sessions.
+ *
+ * Fields may be quoted, with the quote doubled inside a quoted field, but a
+ * quoted field can not contain a newline since chunks are cut at any
+ * newline. Empty unquoted fields, and fields matching --nulls, are null.
+ * Dates and times are read as UTC, as yyyy-mm-dd, hh:mm:ss and
+ * yyyy-mm-dd hh:mm:ss[.fff] or as seconds since the epoch. Rows that do not
+ * parse are counted, logged and skipped.
+ */
+public class DelimitedFileLoader {
+
+  final static Logger LOGGER = LoggerFactory.getLogger(DelimitedFileLoader.class);
+
+  // a mapping can not pass 2GB, and smaller chunks share out more evenly
+  private static final long MAX_CHUNK = 1L << 28;
+  // rejected rows logged one by one before going quiet
+  private static final int LOGGED_REJECTS = 20;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private CommandLine cmd = null;
+  private final ImportProgress progress = new ImportProgress();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicInteger nextChunk = new AtomicInteger();
+  private Exception workerFailure = null;
+  // set once any worker has failed, the others stop at their next line
+  private volatile boolean aborted = false;
+  private byte delimiter;
+  private byte quote;
+  private byte[] nullValue;
+
+  public static void main(String[] args) {
+    DelimitedFileLoader dl = new DelimitedFileLoader();
+    dl.doWork(args);
+  }
+
+  void doWork(String[] args) {
+
+    Options options = new Options();
+
+    Option file = Option.builder("f")
+            .hasArg()
+            .desc("Delimited file to load")
+            .longOpt("file")
+            .required()
+            .build();
+
+    Option targetTable = Option.builder("t")
+            .hasArg()
+            .desc("MapD Target Table, which must exist")
+            .longOpt("targetTable")
+            .required()
+            .build();
+
+    Option server = Option.builder("s")
+            .hasArg()
+            .desc("MapD Server")
+            .longOpt("server")
+            .build();
+
+    Option port = Option.builder()
+            .hasArg()
+            .desc("MapD Port")
+            .longOpt("port")
+            .build();
+
+    Option database = Option.builder("db")
+            .hasArg()
+            .desc("MapD Database")
+            .longOpt("database")
+            .build();
+
+    Option user = Option.builder("u")
+            .hasArg()
+            .desc("MapD User")
+            .longOpt("user")
+            .build();
+
+    Option passwd = Option.builder("p")
+            .hasArg()
+            .desc("MapD Password")
+            .longOpt("passwd")
+            .build();
+
+    Option transport = Option.builder()
+            .hasArg()
+            .desc("MapD transport: binary (default), framed or zlib, for the server's port, framed-port or compressed-port")
+            .longOpt("transport")
+            .build();
+
+    Option delimiterOpt = Option.builder("d")
+            .hasArg()
+            .desc("Field delimiter, one character or tab (default ,)")
+            .longOpt("delimiter")
+            .build();
+
+    Option quoteOpt = Option.builder()
+            .hasArg()
+            .desc("Quote character (default \")")
+            .longOpt("quote")
+            .build();
+
+    Option header = Option.builder()
+            .desc("Skip the file's first line")
+            .longOpt("header")
+            .build();
+
+    Option nulls = Option.builder()
+            .hasArg()
+            .desc("Unquoted field value read as null, besides an empty field")
+            .longOpt("nulls")
+            .build();
+
+    Option threads = Option.builder()
+            .hasArg()
+            .desc("Threads parsing the file (default one per processor)")
+            .longOpt("threads")
+            .build();
+
+    Option loaders = Option.builder()
+            .hasArg()
+            .desc("Number of MapD sessions loading in parallel (default 2)")
+            .longOpt("loaders")
+            .build();
+
+    Option queueDepth = Option.builder()
+            .hasArg()
+            .desc("Batches queued per loader session (default 4)")
+            .longOpt("queueDepth")
+            .build();
+
+    Option bufferSize = Option.builder("b")
+            .hasArg()
+            .desc("Rows per load batch (default 100000)")
+            .longOpt("bufferSize")
+            .build();
+
+    Option progressInterval = Option.builder()
+            .hasArg()
+            .desc("Seconds between progress reports, 0 for none (default 30)")
+            .longOpt("progressInterval")
+            .build();
+
+    Option summaryFile = Option.builder()
+            .hasArg()
+            .desc("File to write a JSON summary of the run to")
+            .longOpt("summaryFile")
+            .build();
+
+    options.addOption(file);
+    options.addOption(targetTable);
+    options.addOption(server);
+    options.addOption(port);
+    options.addOption(database);
+    options.addOption(user);
+    options.addOption(passwd);
+    options.addOption(transport);
+    options.addOption(delimiterOpt);
+    options.addOption(quoteOpt);
+    options.addOption(header);
+    options.addOption(nulls);
+    options.addOption(threads);
+    options.addOption(loaders);
+    options.addOption(queueDepth);
+    options.addOption(bufferSize);
+    options.addOption(progressInterval);
+    options.addOption(summaryFile);
+
+    CommandLineParser parser = new DefaultParser();
+
+    try {
+      cmd = parser.parse(options, args);
+    } catch (ParseException ex) {
+      LOGGER.error(ex.getLocalizedMessage());
+      help(options);
+      exit(0);
+    }
+
+    String delim = cmd.getOptionValue("delimiter", ",");
+    if (delim.equals("tab") || delim.equals("\\t")) {
+      delim = "\t";
+    }
+    String quoteChar = cmd.getOptionValue("quote", "\"");
+    if (delim.length() != 1 || delim.charAt(0) > 127 || quoteChar.length() != 1 || quoteChar.charAt(0) > 127) {
+      LOGGER.error("delimiter and quote must each be a single ASCII character");
+      exit(1);
+    }
+    delimiter = (byte) delim.charAt(0);
+    quote = (byte) quoteChar.charAt(0);
+    nullValue = cmd.getOptionValue("nulls", "").getBytes(UTF8);
+
+    if (!load()) {
+      exit(1);
+    }
+  }
+
+  private void help(Options options) {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("DelimitedFileLoader", options);
+  }
+
+  /**
+   * Loads the file, returning whether every batch made it to the server.
+   */
+  boolean load() {
+    long startTime = System.currentTimeMillis();
+    boolean succeeded = false;
+    RandomAccessFile file = null;
+    MapDBulkLoader loader = null;
+    try {
+      file = new RandomAccessFile(cmd.getOptionValue("file"), "r");
+      FileChannel channel = file.getChannel();
+      loader = createLoader();
+      List<TColumnType> columns = loader.getTableColumns();
+      for (TColumnType column : columns) {
+        if (parserFor(column) == null) {
+          throw new SQLException("Column " + column.col_name + " of type " + column.col_type.type
+                  + (column.col_type.is_array ? "[]" : "") + " can not be loaded by DelimitedFileLoader");
+        }
+      }
+      int threadCount = Integer.valueOf(cmd.getOptionValue("threads",
+              Integer.toString(Runtime.getRuntime().availableProcessors())));
+      int bufferSize = Integer.valueOf(cmd.getOptionValue("bufferSize", "100000"));
+      List<long[]> chunks = splitChunks(channel, threadCount, cmd.hasOption("header"));
+      LOGGER.info("Loading " + channel.size() + " bytes in " + chunks.size() + " chunks on " + threadCount
+              + " threads into " + columns.size() + " columns");
+
+      progress.start(loader, Integer.valueOf(cmd.getOptionValue("progressInterval", "30")));
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int i = 0; i < threadCount; i++) {
+        workers.add(startWorker(i, channel, chunks, columns, bufferSize, loader));
+      }
+      for (Thread worker : workers) {
+        try {
+          worker.join();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          aborted = true;
+          throw new SQLException("Interrupted waiting for parse threads");
+        }
+      }
+      synchronized (this) {
+        if (workerFailure != null) {
+          throw workerFailure;
+        }
+      }
+      succeeded = true;
+    } catch (Exception ex) {
+      LOGGER.error("Load failed - " + ex.toString());
+    } finally {
+      if (loader != null) {
+        // sends whatever is still queued, and reports any load that failed
+        long loadStart = System.nanoTime();
+        try {
+          loader.close();
+        } catch (SQLException ex) {
+          LOGGER.error("Load failed - " + ex.toString());
+          succeeded = false;
+        }
+        progress.loaderWait(System.nanoTime() - loadStart);
+      }
+      progress.stop();
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException ex) {
+          LOGGER.error("Closing " + cmd.getOptionValue("file") + " failed - " + ex.toString());
+        }
+      }
+    }
+    progress.report();
+    LOGGER.info(progress.rowsRead.get() + " rows parsed, " + rejected.get() + " rejected, in "
+            + (System.currentTimeMillis() - startTime) + "ms");
+    if (cmd.hasOption("summaryFile")) {
+      try {
+        progress.writeSummary(cmd.getOptionValue("summaryFile"), cmd.getOptionValue("targetTable"), succeeded);
+      } catch (IOException ex) {
+        LOGGER.error("Writing summary file failed - " + ex.toString());
+      }
+    }
+    return succeeded;
+  }
+
+  private MapDBulkLoader createLoader() throws SQLException {
+    String url = "jdbc:mapd:" + cmd.getOptionValue("server", "localhost") + ":"
+            + cmd.getOptionValue("port", "9091") + ":" + cmd.getOptionValue("database", "mapd");
+    Properties info = new Properties();
+    info.setProperty("user", cmd.getOptionValue("user", "mapd"));
+    info.setProperty("password", cmd.getOptionValue("passwd", "HyperInteractive"));
+    info.setProperty("transport", cmd.getOptionValue("transport", "binary"));
+    // each loader session only ever runs one call at a time
+    info.setProperty("maxChannels", "1");
+    return new MapDBulkLoader(url, info, cmd.getOptionValue("targetTable"),
+            Integer.valueOf(cmd.getOptionValue("loaders", "2")),
+            Integer.valueOf(cmd.getOptionValue("queueDepth", "4")));
+  }
+
+  /**
+   * Cuts the file into at least threads chunks of whole lines, none much
+   * over MAX_CHUNK, as {start, end} offsets.
+   */
+  static List<long[]> splitChunks(FileChannel channel, int threads, boolean header) throws IOException {
+    long size = channel.size();
+    long start = header ? lineEnd(channel, 0) : 0;
+    long length = size - start;
+    int count = (int) Math.max(threads, (length + MAX_CHUNK - 1) / MAX_CHUNK);
+    List<long[]> chunks = new ArrayList<long[]>(count);
+    long first = start;
+    for (int i = 1; i <= count && start < size; i++) {
+      long end = i == count ? size : lineEnd(channel, Math.max(start, first + length * i / count));
+      if (end > start) {
+        chunks.add(new long[]{start, end});
+      }
+      start = end;
+    }
+    return chunks;
+  }
+
+  /**
+   * The offset just past the first newline at or after pos, or the file
+   * size.
+   */
+  private static long lineEnd(FileChannel channel, long pos) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+    long size = channel.size();
+    while (pos < size) {
+      buf.clear();
+      int n = channel.read(buf, pos);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (buf.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += n;
+    }
+    return size;
+  }
+
+  private Thread startWorker(int index, final FileChannel channel, final List<long[]> chunks,
+          final List<TColumnType> columns, final int bufferSize, final MapDBulkLoader loader) {
+    Thread worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new Worker(columns, bufferSize, loader).parseChunks(channel, chunks);
+        } catch (Throwable ex) {
+          aborted = true;
+          LOGGER.error("Parsing failed - " + ex.toString());
+          synchronized (DelimitedFileLoader.this) {
+            if (workerFailure == null) {
+              workerFailure = ex instanceof Exception ? (Exception) ex
+                      : new SQLException("Parsing failed - " + ex.toString(), ex);
+            }
+          }
+        }
+      }
+    }, "delimited-loader-" + index);
+    worker.start();
+    return worker;
+  }
+
+  /**
+   * Turns a field's bytes into a value of one column type. One is picked
+   * per column up front and makes that column's buffers, so each parser
+   * appends through the typed method of its own buffer class.
+   */
+  private abstract static class FieldParser<B extends ColumnBuffer> {
+
+    abstract B newBuffer(int capacity);
+
+    abstract void parse(Worker w, int start, int end, B col);
+  }
+
+  private abstract static class LongParser extends FieldParser<ColumnBuffer.LongBuffer> {
+
+    @Override
+    ColumnBuffer.LongBuffer newBuffer(int capacity) {
+      return new ColumnBuffer.LongBuffer(0, capacity);
+    }
+  }
+
+  private static final FieldParser<?> LONG_PARSER = new LongParser() {
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.LongBuffer col) {
+      col.append(parseLong(w.buf, start, end));
+    }
+  };
+
+  private static final FieldParser<?> BOOL_PARSER = new LongParser() {
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.LongBuffer col) {
+      String value = w.text(start, end).trim();
+      if (value.equals("1") || value.equalsIgnoreCase("t") || value.equalsIgnoreCase("true")
+              || value.equalsIgnoreCase("y") || value.equalsIgnoreCase("yes")) {
+        col.append(1L);
+      } else if (value.equals("0") || value.equalsIgnoreCase("f") || value.equalsIgnoreCase("false")
+              || value.equalsIgnoreCase("n") || value.equalsIgnoreCase("no")) {
+        col.append(0L);
+      } else {
+        throw new IllegalArgumentException("not a boolean: " + value);
+      }
+    }
+  };
+
+  private static final FieldParser<?> DOUBLE_PARSER = new FieldParser<ColumnBuffer.DoubleBuffer>() {
+    @Override
+    ColumnBuffer.DoubleBuffer newBuffer(int capacity) {
+      return new ColumnBuffer.DoubleBuffer(0, capacity);
+    }
+
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.DoubleBuffer col) {
+      col.append(Double.parseDouble(w.text(start, end).trim()));
+    }
+  };
+
+  private static final FieldParser<?> STRING_PARSER = new FieldParser<ColumnBuffer.StrBuffer>() {
+    @Override
+    ColumnBuffer.StrBuffer newBuffer(int capacity) {
+      return new ColumnBuffer.StrBuffer(0, capacity);
+    }
+
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.StrBuffer col) {
+      String value = w.text(start, end);
+      if (w.escaped) {
+        String q = String.valueOf((char) w.quote);
+        value = value.replace(q + q, q);
+      }
+      col.append(value);
+    }
+  };
+
+  private static final FieldParser<?> TIMESTAMP_PARSER = new LongParser() {
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.LongBuffer col) {
+      col.append(parseTimestamp(w.buf, start, end));
+    }
+  };
+
+  private static final FieldParser<?> DATE_PARSER = new LongParser() {
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.LongBuffer col) {
+      long seconds = parseTimestamp(w.buf, start, end);
+      col.append(seconds - floorMod(seconds, 86400));
+    }
+  };
+
+  private static final FieldParser<?> TIME_PARSER = new LongParser() {
+    @Override
+    void parse(Worker w, int start, int end, ColumnBuffer.LongBuffer col) {
+      col.append(parseTime(w.buf, start, end));
+    }
+  };
+
+  /**
+   * The parser for a column, or null when it can not be loaded from text.
+   */
+  private static FieldParser<?> parserFor(TColumnType type) {
+    if (type.col_type.is_array) {
+      return null;
+    }
+    switch (type.col_type.type) {
+      case SMALLINT:
+      case INT:
+      case BIGINT:
+        return LONG_PARSER;
+      case BOOL:
+        return BOOL_PARSER;
+      case FLOAT:
+      case DOUBLE:
+      case DECIMAL:
+        return DOUBLE_PARSER;
+      case TIMESTAMP:
+        return TIMESTAMP_PARSER;
+      case DATE:
+        return DATE_PARSER;
+      case TIME:
+        return TIME_PARSER;
+      case STR:
+        return STRING_PARSER;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Parses one thread's share of the chunks into batches of its own.
+   */
+  private class Worker {
+
+    final List<TColumnType> columns;
+    final FieldParser<?>[] parsers;
+    final boolean[] nullable;
+    final int bufferSize;
+    final MapDBulkLoader loader;
+    final BlockingQueue<List<TColumn>> free = new LinkedBlockingQueue<List<TColumn>>();
+    final byte quote = DelimitedFileLoader.this.quote;
+    // fields of the current line
+    final int[] starts;
+    final int[] ends;
+    final boolean[] quoted;
+    final boolean[] escapes;
+    int fieldCount;
+    ByteBuffer buf;
+    boolean escaped;
+    byte[] scratch = new byte[256];
+
+    Worker(List<TColumnType> columns, int bufferSize, MapDBulkLoader loader) {
+      this.columns = columns;
+      this.bufferSize = bufferSize;
+      this.loader = loader;
+      int n = columns.size();
+      parsers = new FieldParser<?>[n];
+      nullable = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        parsers[i] = parserFor(columns.get(i));
+        nullable[i] = columns.get(i).col_type.nullable;
+      }
+      starts = new int[n];
+      ends = new int[n];
+      quoted = new boolean[n];
+      escapes = new boolean[n];
+    }
+
+    void parseChunks(FileChannel channel, List<long[]> chunks) throws IOException, SQLException {
+      List<TColumn> cols = newBatch();
+      int rows = 0;
+      long batchStart = System.nanoTime();
+      for (int c = nextChunk.getAndIncrement(); c < chunks.size(); c = nextChunk.getAndIncrement()) {
+        long[] chunk = chunks.get(c);
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit) {
+          if (aborted) {
+            // another worker or the loader failed, the load is lost anyway
+            buf = null;
+            return;
+          }
+          int lineStart = pos;
+          pos = split(pos, limit);
+          if (fieldCount == 1 && ends[0] == starts[0] && !quoted[0] && columns.size() > 1) {
+            // blank line, in a single column table it is a null row
+            continue;
+          }
+          if (addRow(cols, rows, chunk[0] + lineStart)) {
+            rows++;
+          }
+          if (rows >= bufferSize) {
+            send(cols, rows, batchStart);
+            cols = nextBatch();
+            rows = 0;
+            batchStart = System.nanoTime();
+          }
+        }
+      }
+      buf = null;
+      if (rows > 0) {
+        send(cols, rows, batchStart);
+      }
+    }
+
+    /**
+     * Records the fields of the line at pos and returns where the next line
+     * starts. Fields past the table's last column are counted, not kept.
+     */
+    int split(int pos, int limit) {
+      fieldCount = 0;
+      int i = pos;
+      while (true) {
+        int start;
+        int end;
+        boolean isQuoted = i < limit && buf.get(i) == quote;
+        boolean isEscaped = false;
+        if (isQuoted) {
+          start = ++i;
+          while (i < limit) {
+            byte b = buf.get(i);
+            if (b == quote) {
+              if (i + 1 < limit && buf.get(i + 1) == quote) {
+                isEscaped = true;
+                i += 2;
+                continue;
+              }
+              break;
+            }
+            if (b == '\n') {
+              break;
+            }
+            i++;
+          }
+          end = i;
+          if (i < limit && buf.get(i) == quote) {
+            i++;
+          }
+          // ignore anything between the closing quote and the delimiter
+          while (i < limit && buf.get(i) != delimiter && buf.get(i) != '\n') {
+            i++;
+          }
+        } else {
+          start = i;
+          while (i < limit && buf.get(i) != delimiter && buf.get(i) != '\n') {
+            i++;
+          }
+          end = i;
+          if (end > start && buf.get(end - 1) == '\r' && (i == limit || buf.get(i) == '\n')) {
+            end--;
+          }
+        }
+        if (fieldCount < starts.length) {
+          starts[fieldCount] = start;
+          ends[fieldCount] = end;
+          quoted[fieldCount] = isQuoted;
+          escapes[fieldCount] = isEscaped;
+        }
+        fieldCount++;
+        if (i < limit && buf.get(i) == delimiter) {
+          i++;
+          continue;
+        }
+        return i < limit ? i + 1 : limit;
+      }
+    }
+
+    /**
+     * Appends the split line as row rows of cols, or rejects it and leaves
+     * cols as it was.
+     */
+    boolean addRow(List<TColumn> cols, int rows, long offset) {
+      if (fieldCount != columns.size()) {
+        reject(offset, "has " + fieldCount + " fields, the table has " + columns.size() + " columns");
+        return false;
+      }
+      int i = 0;
+      try {
+        for (; i < fieldCount; i++) {
+          ColumnBuffer col = (ColumnBuffer) cols.get(i);
+          if (!quoted[i] && isNull(starts[i], ends[i])) {
+            if (!nullable[i]) {
+              throw new IllegalArgumentException("null in a NOT NULL column");
+            }
+            col.appendNull();
+          } else {
+            escaped = escapes[i];
+            parse(parsers[i], starts[i], ends[i], col);
+          }
+        }
+        return true;
+      } catch (IllegalArgumentException ex) {
+        for (TColumn col : cols) {
+          ((ColumnBuffer) col).truncate(rows);
+        }
+        reject(offset, "column " + columns.get(i).col_name + " " + ex.getMessage());
+        return false;
+      }
+    }
+
+    // col was made by parser.newBuffer, see newBatch
+    @SuppressWarnings("unchecked")
+    private <B extends ColumnBuffer> void parse(FieldParser<B> parser, int start, int end, ColumnBuffer col) {
+      parser.parse(this, start, end, (B) col);
+    }
+
+    private boolean isNull(int start, int end) {
+      int len = end - start;
+      if (len == 0) {
+        return true;
+      }
+      if (len != nullValue.length) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (buf.get(start + i) != nullValue[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void reject(long offset, String reason) {
+      if (rejected.incrementAndGet() <= LOGGED_REJECTS) {
+        LOGGER.warn("Skipped the line at byte " + offset + ": " + reason);
+      }
+    }
+
+    String text(int start, int end) {
+      int len = end - start;
+      if (len > scratch.length) {
+        scratch = new byte[Math.max(len, scratch.length * 2)];
+      }
+      for (int i = 0; i < len; i++) {
+        scratch[i] = buf.get(start + i);
+      }
+      return new String(scratch, 0, len, UTF8);
+    }
+
+    private List<TColumn> newBatch() {
+      List<TColumn> cols = new ArrayList<TColumn>(columns.size());
+      for (FieldParser<?> parser : parsers) {
+        cols.add(parser.newBuffer(bufferSize));
+      }
+      return cols;
+    }
+
+    private List<TColumn> nextBatch() {
+      List<TColumn> cols = free.poll();
+      if (cols == null) {
+        return newBatch();
+      }
+      for (TColumn col : cols) {
+        ((ColumnBuffer) col).reset();
+      }
+      return cols;
+    }
+
+    private void send(final List<TColumn> cols, int rows, long batchStart) throws SQLException {
+      long now = System.nanoTime();
+      progress.batchRead(rows, now - batchStart, 0, now - batchStart);
+      loader.addColumns(null, cols, rows, new MapDBulkLoader.BatchListener() {
+        @Override
+        public void batchDone(boolean loaded, long loadNanos) {
+          free.add(cols);
+        }
+      });
+      progress.loaderWait(System.nanoTime() - now);
+    }
+  }
+
+  static long parseLong(ByteBuffer buf, int start, int end) {
+    while (start < end && buf.get(start) == ' ') {
+      start++;
+    }
+    while (end > start && buf.get(end - 1) == ' ') {
+      end--;
+    }
+    boolean negative = false;
+    if (start < end && (buf.get(start) == '-' || buf.get(start) == '+')) {
+      negative = buf.get(start) == '-';
+      start++;
+    }
+    if (start == end || end - start > 19) {
+      throw new NumberFormatException("not an integer");
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = buf.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("not an integer");
+      }
+      value = value * 10 + digit;
+      if (value < 0) {
+        throw new NumberFormatException("integer out of range");
+      }
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Seconds since the epoch, UTC, from yyyy-mm-dd[( |T)hh:mm[:ss[.fff]]][Z]
+   * or a plain number of seconds.
+   */
+  static long parseTimestamp(ByteBuffer buf, int start, int end) {
+    while (start < end && buf.get(start) == ' ') {
+      start++;
+    }
+    while (end > start && (buf.get(end - 1) == ' ' || buf.get(end - 1) == 'Z')) {
+      end--;
+    }
+    if (end - start < 10 || buf.get(start + 4) != '-') {
+      return parseLong(buf, start, end);
+    }
+    int year = digits(buf, start, 4);
+    int month = digits(buf, start + 5, 2);
+    int day = digits(buf, start + 8, 2);
+    if (buf.get(start + 7) != '-' || month < 1 || month > 12 || day < 1 || day > 31) {
+      throw new IllegalArgumentException("not a date");
+    }
+    long seconds = daysFromCivil(year, month, day) * 86400L;
+    int pos = start + 10;
+    if (pos < end) {
+      byte sep = buf.get(pos);
+      if (sep != ' ' && sep != 'T') {
+        throw new IllegalArgumentException("not a timestamp");
+      }
+      seconds += parseTime(buf, pos + 1, end);
+    }
+    return seconds;
+  }
+
+  /**
+   * Seconds into the day from hh:mm[:ss[.fff]]; fractions are dropped.
+   */
+  static long parseTime(ByteBuffer buf, int start, int end) {
+    while (start < end && buf.get(start) == ' ') {
+      start++;
+    }
+    while (end > start && buf.get(end - 1) == ' ') {
+      end--;
+    }
+    if (end - start < 5 || buf.get(start + 2) != ':') {
+      throw new IllegalArgumentException("not a time");
+    }
+    int hour = digits(buf, start, 2);
+    int minute = digits(buf, start + 3, 2);
+    int second = 0;
+    int pos = start + 5;
+    if (pos < end) {
+      if (end - pos < 3 || buf.get(pos) != ':') {
+        throw new IllegalArgumentException("not a time");
+      }
+      second = digits(buf, pos + 1, 2);
+      pos += 3;
+      if (pos < end && buf.get(pos) != '.') {
+        throw new IllegalArgumentException("not a time");
+      }
+    }
+    if (hour > 23 || minute > 59 || second > 60) {
+      throw new IllegalArgumentException("not a time");
+    }
+    return hour * 3600 + minute * 60 + second;
+  }
+
+  private static int digits(ByteBuffer buf, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      int digit = buf.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IllegalArgumentException("not a date or time");
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /**
+   * Days since 1970-01-01 of a proleptic Gregorian date.
+   */
+  static long daysFromCivil(int year, int month, int day) {
+    year -= month <= 2 ? 1 : 0;
+    long era = (year >= 0 ? year : year - 399) / 400;
+    long yearOfEra = year - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static long floorMod(long x, long y) {
+    long mod = x % y;
+    return mod < 0 ? mod + y : mod;
+  }
+}
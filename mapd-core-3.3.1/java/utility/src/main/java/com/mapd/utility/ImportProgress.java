@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import com.mapd.jdbc.MapDBulkLoader;
+import com.mapd.jdbc.MapDMetrics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters for one SQLImporter or DelimitedFileLoader run. Reader threads
+ * split their time between waiting on the source (ResultSet.next), building
+ * columns and waiting for room in the loader queues; the loader reports load
+ * call latency and bytes sent. Comparing the three reader times with the
+ * load latency shows which side holds the import back. A timer logs a
+ * progress line every interval and writeSummary leaves a JSON record of the
+ * run for whatever scheduled it.
+ */
+class ImportProgress {
+
+  final static Logger LOGGER = LoggerFactory.getLogger(ImportProgress.class);
+
+  final AtomicLong rowsRead = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong sourceNanos = new AtomicLong();
+  private final AtomicLong buildNanos = new AtomicLong();
+  private final AtomicLong loaderWaitNanos = new AtomicLong();
+  private final MapDMetrics.Histogram fetchLatency = new MapDMetrics.Histogram();
+  private final long startedAt = System.currentTimeMillis();
+  private volatile MapDBulkLoader loader = null;
+  private Timer timer = null;
+  private long lastReportAt = startedAt;
+  private long lastRows = 0;
+  private long lastBytes = 0;
+
+  /**
+   * Starts logging progress every intervalSeconds, if positive.
+   */
+  synchronized void start(MapDBulkLoader loader, int intervalSeconds) {
+    this.loader = loader;
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    timer = new Timer("sqlimporter-progress", true);
+    timer.scheduleAtFixedRate(new TimerTask() {
+      @Override
+      public void run() {
+        report();
+      }
+    }, intervalSeconds * 1000L, intervalSeconds * 1000L);
+  }
+
+  synchronized void stop() {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+  }
+
+  /**
+   * Records a batch of rows read from the source; fetchNanos is the time it
+   * took to fill, split into source and build time.
+   */
+  void batchRead(int rows, long fetchNanos, long source, long build) {
+    rowsRead.addAndGet(rows);
+    batches.incrementAndGet();
+    fetchLatency.record(fetchNanos);
+    sourceNanos.addAndGet(source);
+    buildNanos.addAndGet(build);
+  }
+
+  void loaderWait(long nanos) {
+    loaderWaitNanos.addAndGet(nanos);
+  }
+
+  long getLoaderWaitMs() {
+    return loaderWaitNanos.get() / 1000000;
+  }
+
+  private long rowsLoaded() {
+    return loader == null ? 0 : loader.getRowsLoaded();
+  }
+
+  private long bytesSent() {
+    return loader == null ? 0 : loader.getBytesSent();
+  }
+
+  synchronized void report() {
+    long now = System.currentTimeMillis();
+    long rows = rowsLoaded();
+    long bytes = bytesSent();
+    double interval = Math.max(1, now - lastReportAt) / 1000.0;
+    double elapsed = Math.max(1, now - startedAt) / 1000.0;
+    MapDMetrics.Histogram load = loader == null ? new MapDMetrics.Histogram() : loader.getLoadLatency();
+    LOGGER.info(String.format("Progress: %d rows read, %d loaded, %.0f rows/s (%.0f overall), %.2f MB/s sent; "
+            + "fetch p50 %.1f p99 %.1f ms, load p50 %.1f p99 %.1f ms; source %d ms, build %d ms, "
+            + "loader wait %d ms", rowsRead.get(), rows, (rows - lastRows) / interval, rows / elapsed,
+            (bytes - lastBytes) / interval / 1e6, fetchLatency.getPercentileMs(0.5),
+            fetchLatency.getPercentileMs(0.99), load.getPercentileMs(0.5), load.getPercentileMs(0.99),
+            sourceNanos.get() / 1000000, buildNanos.get() / 1000000, getLoaderWaitMs()));
+    lastReportAt = now;
+    lastRows = rows;
+    lastBytes = bytes;
+  }
+
+  /**
+   * Writes the run's totals to fileName as a JSON object.
+   */
+  void writeSummary(String fileName, String table, boolean succeeded) throws IOException {
+    double elapsed = Math.max(1, System.currentTimeMillis() - startedAt) / 1000.0;
+    long rows = rowsLoaded();
+    long bytes = bytesSent();
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n");
+    sb.append("  \"table\": ").append(quote(table)).append(",\n");
+    sb.append("  \"status\": ").append(quote(succeeded ? "succeeded" : "failed")).append(",\n");
+    sb.append(String.format(Locale.ROOT, "  \"elapsed_seconds\": %.3f,\n", elapsed));
+    sb.append("  \"rows_read\": ").append(rowsRead.get()).append(",\n");
+    sb.append("  \"rows_loaded\": ").append(rows).append(",\n");
+    sb.append("  \"batches\": ").append(batches.get()).append(",\n");
+    sb.append("  \"bytes_sent\": ").append(bytes).append(",\n");
+    sb.append(String.format(Locale.ROOT, "  \"rows_per_second\": %.1f,\n", rows / elapsed));
+    sb.append(String.format(Locale.ROOT, "  \"bytes_per_second\": %.1f,\n", bytes / elapsed));
+    sb.append("  \"loader_sessions\": ").append(loader == null ? 0 : loader.getSessionCount()).append(",\n");
+    sb.append("  \"source_ms\": ").append(sourceNanos.get() / 1000000).append(",\n");
+    sb.append("  \"build_ms\": ").append(buildNanos.get() / 1000000).append(",\n");
+    sb.append("  \"loader_wait_ms\": ").append(getLoaderWaitMs()).append(",\n");
+    sb.append("  \"fetch_latency_ms\": ");
+    appendHistogram(sb, fetchLatency);
+    sb.append(",\n  \"load_latency_ms\": ");
+    appendHistogram(sb, loader == null ? new MapDMetrics.Histogram() : loader.getLoadLatency());
+    sb.append("\n}\n");
+
+    File file = new File(fileName);
+    File tmp = new File(fileName + ".tmp");
+    Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+    try {
+      out.write(sb.toString());
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not replace " + fileName);
+      }
+    }
+  }
+
+  private static void appendHistogram(StringBuilder sb, MapDMetrics.Histogram h) {
+    sb.append(String.format(Locale.ROOT, "{\"count\": %d, \"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, "
+            + "\"p99\": %.3f, \"max\": %.3f}", h.getCount(), h.getMeanMs(), h.getPercentileMs(0.5), h.getPercentileMs(0.9),
+            h.getPercentileMs(0.99), h.getMaxMs()));
+  }
+
+  private static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < ' ') {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -15,20 +15,27 @@
  */
 package com.mapd.utility;
 
+import com.mapd.jdbc.MapDBulkLoader;
 import com.mapd.thrift.server.MapD;
 import com.mapd.thrift.server.TColumn;
-import com.mapd.thrift.server.TColumnData;
 import com.mapd.thrift.server.TColumnType;
 import com.mapd.thrift.server.TQueryResult;
 import com.mapd.thrift.server.TTableDetails;
 import com.mapd.thrift.server.TMapDException;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.math.BigInteger;
 import static java.lang.System.exit;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -38,10 +45,13 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TZlibTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +60,15 @@ public class SQLImporter {
   protected String session = null;
   protected MapD.Client client = null;
   private CommandLine cmd = null;
+  private final ImportProgress progress = new ImportProgress();
+  private BatchSizer sizer = null;
+  private BatchJournal journal = null;
+  private SQLException readFailure = null;
+  // set once any source read has failed, the others stop at their next row
+  private volatile boolean abortReads = false;
+  private final List<Statement> rangeStatements = new ArrayList<Statement>();
+  private int watermarkType;
+  private Object watermark = null;
   final static Logger LOGGER = LoggerFactory.getLogger(SQLImporter.class);
 
   public static void main(String[] args) {
@@ -159,6 +178,99 @@ public class SQLImporter {
             .longOpt("initializeFile")
             .build();
 
+    Option transport = Option.builder()
+            .hasArg()
+            .desc("MapD transport: binary (default), framed or zlib, for the server's port, framed-port or compressed-port")
+            .longOpt("transport")
+            .build();
+
+    Option loaders = Option.builder()
+            .hasArg()
+            .desc("Number of MapD sessions loading in parallel while the source is read (default 1)")
+            .longOpt("loaders")
+            .build();
+
+    Option queueDepth = Option.builder()
+            .hasArg()
+            .desc("Batches of bufferSize rows queued per loader session (default 4)")
+            .longOpt("queueDepth")
+            .build();
+
+    Option splitColumn = Option.builder()
+            .hasArg()
+            .desc("Numeric, date or timestamp column to split the source query into ranges on, read concurrently")
+            .longOpt("splitColumn")
+            .build();
+
+    Option splits = Option.builder()
+            .hasArg()
+            .desc("Number of ranges, and source connections, used with splitColumn (default 4)")
+            .longOpt("splits")
+            .build();
+
+    Option incrementalColumn = Option.builder()
+            .hasArg()
+            .desc("Increasing id, date or timestamp column; only rows above the last imported value are read")
+            .longOpt("incrementalColumn")
+            .build();
+
+    Option stateFile = Option.builder()
+            .hasArg()
+            .desc("File holding the incrementalColumn watermark of each target table (default sqlimporter.state)")
+            .longOpt("stateFile")
+            .build();
+
+    Option batchBytes = Option.builder()
+            .hasArg()
+            .desc("Target bytes per load batch; after the first batch of bufferSize rows, row counts follow row "
+                    + "width and the target follows load throughput")
+            .longOpt("batchBytes")
+            .build();
+
+    Option maxBatchBytes = Option.builder()
+            .hasArg()
+            .desc("Largest batch target batchBytes may grow to (default 4 times batchBytes)")
+            .longOpt("maxBatchBytes")
+            .build();
+
+    Option maxLoadMs = Option.builder()
+            .hasArg()
+            .desc("Shrink the batch target whenever a load takes longer than this (default 10000)")
+            .longOpt("maxLoadMs")
+            .build();
+
+    Option journalOpt = Option.builder()
+            .hasArg()
+            .desc("Record loaded batches in this file so a failed import run again skips them; the source "
+                    + "must return rows in the same order every run, e.g. ORDER BY a unique key")
+            .longOpt("journal")
+            .build();
+
+    Option retries = Option.builder()
+            .hasArg()
+            .desc("Times a load that failed on the network or lost its session is retried on a new session "
+                    + "(default 3)")
+            .longOpt("retries")
+            .build();
+
+    Option retryBackoffMs = Option.builder()
+            .hasArg()
+            .desc("Wait before the first retry, doubling for each one after (default 500)")
+            .longOpt("retryBackoffMs")
+            .build();
+
+    Option progressInterval = Option.builder()
+            .hasArg()
+            .desc("Seconds between progress reports, 0 for none (default 30)")
+            .longOpt("progressInterval")
+            .build();
+
+    Option summaryFile = Option.builder()
+            .hasArg()
+            .desc("File to write a JSON summary of the run to")
+            .longOpt("summaryFile")
+            .build();
+
     options.addOption(driver);
     options.addOption(sqlStmt);
     options.addOption(jdbcConnect);
@@ -174,6 +286,21 @@ public class SQLImporter {
     options.addOption(fragmentSize);
     options.addOption(truncate);
     options.addOption(initFile);
+    options.addOption(transport);
+    options.addOption(loaders);
+    options.addOption(queueDepth);
+    options.addOption(splitColumn);
+    options.addOption(splits);
+    options.addOption(incrementalColumn);
+    options.addOption(stateFile);
+    options.addOption(batchBytes);
+    options.addOption(maxBatchBytes);
+    options.addOption(maxLoadMs);
+    options.addOption(journalOpt);
+    options.addOption(retries);
+    options.addOption(retryBackoffMs);
+    options.addOption(progressInterval);
+    options.addOption(summaryFile);
 
     CommandLineParser parser = new DefaultParser();
 
@@ -192,6 +319,7 @@ public class SQLImporter {
     Statement stmt = null;
 
     long totalTime = 0;
+    boolean succeeded = false;
 
     try {
       //Open a connection
@@ -210,59 +338,110 @@ public class SQLImporter {
       // set autocommit off to allow postgress to not load all results
       conn.setAutoCommit(false);
 
-      //Execute a query
-      stmt = conn.createStatement();
-
       int bufferSize = Integer.valueOf(cmd.getOptionValue("bufferSize", "10000"));
-      // set the jdbc fetch buffer size to reduce the amount of records being moved to java from postgress
-      stmt.setFetchSize(bufferSize);
+      if (cmd.hasOption("batchBytes")) {
+        long target = Long.valueOf(cmd.getOptionValue("batchBytes"));
+        long max = Long.valueOf(cmd.getOptionValue("maxBatchBytes", Long.toString(target * 4)));
+        if (target <= 0 || max < target) {
+          LOGGER.error("batchBytes must be positive and no more than maxBatchBytes");
+          exit(1);
+        }
+        sizer = new BatchSizer(target, Math.max(1, target / 4), max,
+                Long.valueOf(cmd.getOptionValue("maxLoadMs", "10000")));
+      }
       long timer;
 
-      ResultSet rs = stmt.executeQuery(cmd.getOptionValue("sqlStmt"));
+      //Execute a query
+      List<Object[]> ranges = null;
+      if (cmd.hasOption("splitColumn")) {
+        ranges = splitRanges(conn, Integer.valueOf(cmd.getOptionValue("splits", "4")));
+      }
+      if (cmd.hasOption("journal")) {
+        journal = openJournal(ranges);
+      }
+      ResultSet rs;
+      int keyColumn = 0;
+      if (cmd.hasOption("incrementalColumn")) {
+        if (ranges != null) {
+          LOGGER.error("incrementalColumn can not be combined with splitColumn");
+          exit(1);
+        }
+        keyColumn = prepareIncremental(conn);
+        // cleared again by saveState once every row has loaded
+        saveState(false);
+        stmt = prepareIncrementalQuery(conn, bufferSize);
+        rs = ((PreparedStatement) stmt).executeQuery();
+      } else if (ranges != null) {
+        stmt = prepareRange(conn, ranges, 0, bufferSize);
+        rs = ((PreparedStatement) stmt).executeQuery();
+      } else {
+        stmt = conn.createStatement();
+        // set the jdbc fetch buffer size to reduce the amount of records being moved to java from postgress
+        stmt.setFetchSize(bufferSize);
+        rs = stmt.executeQuery(cmd.getOptionValue("sqlStmt"));
+      }
 
       //check if table already exists and is compatible in MapD with the query metadata
       ResultSetMetaData md = rs.getMetaData();
-      checkMapDTable(md);
+      if (keyColumn == 0) {
+        checkMapDTable(md);
+      }
 
       timer = System.currentTimeMillis();
 
-      long resultCount = 0;
-      int bufferCount = 0;
-      long total = 0;
-
-      List<TColumn> cols = new ArrayList(md.getColumnCount());
-      for (int i = 1; i <= md.getColumnCount(); i++) {
-        TColumn col = setupBinaryColumn(i, md, bufferSize);
-        cols.add(col);
-      }
-
-      // read data from old DB
-      while (rs.next()) {
-        for (int i = 1; i <= md.getColumnCount(); i++) {
-          setColValue(rs, cols.get(i - 1), md.getColumnType(i), i);
-        }
-        resultCount++;
-        bufferCount++;
-        if (bufferCount == bufferSize) {
-          bufferCount = 0;
-          //send the buffer to mapD
-          client.load_table_binary_columnar(session, cmd.getOptionValue("targetTable"), cols); // old
-          // recreate columnar store for use
-          for (int i = 1; i <= md.getColumnCount(); i++) {
-            resetBinaryColumn(i, md, bufferSize, cols.get(i - 1));
+      // rows are read here while the loader sends earlier batches on its own sessions
+      MapDBulkLoader loader = createLoader();
+      progress.start(loader, Integer.valueOf(cmd.getOptionValue("progressInterval", "30")));
+      List<Thread> readers = new ArrayList<Thread>();
+      boolean readDone = false;
+      try {
+        if (ranges != null) {
+          for (int i = 1; i < ranges.size(); i++) {
+            readers.add(startRangeReader(ranges, i, bufferSize, loader));
           }
-
-          if (resultCount % 100000 == 0) {
-            LOGGER.info("Imported " + resultCount + " records");
+        }
+        readSource(rs, md, bufferSize, loader, keyColumn, 0);
+        readDone = true;
+        joinReaders(readers);
+        if (Thread.currentThread().isInterrupted()) {
+          throw new SQLException("Interrupted waiting for source readers");
+        }
+        synchronized (this) {
+          if (readFailure != null) {
+            throw readFailure;
           }
         }
+        long loadStart = System.nanoTime();
+        loader.flush();
+        progress.loaderWait(System.nanoTime() - loadStart);
+        if (keyColumn > 0) {
+          saveState(true);
+        }
+        if (journal != null) {
+          journal.delete();
+          journal = null;
+        }
+      } finally {
+        // the range readers add to the loader and journal, both must outlive them
+        if (!readDone) {
+          stopReaders();
+        }
+        joinReaders(readers);
+        progress.stop();
+        closeLoader(loader);
+        // after closeLoader, which may still record batches it was sending
+        if (journal != null) {
+          journal.close();
+          LOGGER.error("Import incomplete, run it again with the same journal to load the rest");
+        }
       }
-      if (bufferCount > 0) {
-        //send the LAST buffer to mapD
-        client.load_table_binary_columnar(session, cmd.getOptionValue("targetTable"), cols);
-        bufferCount = 0;
+      LOGGER.info("result set count is " + progress.rowsRead.get() + " read time is " + (System.currentTimeMillis() - timer) + "ms");
+      LOGGER.info("waited " + progress.getLoaderWaitMs() + "ms on " + loader.getSessionCount() + " loader sessions over "
+              + cmd.getOptionValue("transport", "binary") + " transport");
+      progress.report();
+      if (sizer != null) {
+        LOGGER.info("batch target ended at " + sizer.getTargetBytes() + " bytes");
       }
-      LOGGER.info("result set count is " + resultCount + " read time is " + (System.currentTimeMillis() - timer) + "ms");
 
       //Clean-up environment
       rs.close();
@@ -270,16 +449,18 @@ public class SQLImporter {
 
       totalTime = System.currentTimeMillis() - startTime;
       conn.close();
+      succeeded = true;
     } catch (SQLException se) {
       LOGGER.error("SQLException - " + se.toString());
       se.printStackTrace();
-    } catch (TMapDException ex) {
-      LOGGER.error("TMapDException - " + ex.toString());
-      ex.printStackTrace();
-    } catch (TException ex) {
-      LOGGER.error("TException failed - " + ex.toString());
-      ex.printStackTrace();
     } finally {
+      if (cmd.hasOption("summaryFile")) {
+        try {
+          progress.writeSummary(cmd.getOptionValue("summaryFile"), cmd.getOptionValue("targetTable"), succeeded);
+        } catch (IOException ex) {
+          LOGGER.error("Writing summary file failed - " + ex.toString());
+        }
+      }
       //finally block used to close resources
       try {
         if (stmt != null) {
@@ -298,6 +479,572 @@ public class SQLImporter {
     }//end try
   }
 
+  /**
+   * Reads rs into column batches for the loader. With keyColumn set batches
+   * only end where that column's value changes and all go to one loader
+   * session in order, so whatever reached MapD before a crash ends on a
+   * whole watermark value. With a journal, rows of stream an earlier run
+   * loaded are read past, and batches end where they start so each batch
+   * is one run of source rows.
+   */
+  private void readSource(ResultSet rs, ResultSetMetaData md, int bufferSize, MapDBulkLoader loader,
+          int keyColumn, int stream) throws SQLException {
+    int bufferCount = 0;
+    int columnCount = md.getColumnCount();
+    // batches the loader has finished with come back here to be refilled
+    BlockingQueue<List<TColumn>> free = new LinkedBlockingQueue<List<TColumn>>();
+    List<TColumn> cols = setupBinaryColumns(md, bufferSize);
+    Object loadKey = keyColumn > 0 ? cmd.getOptionValue("targetTable") : null;
+    Object lastKey = null;
+    int batchRows = bufferSize;
+    // source rows seen, and the row the current batch starts on
+    long row = 0;
+    long batchFirst = 0;
+    long[] skip = journal == null ? null : journal.nextRange(stream, 0);
+    long skipped = 0;
+
+    // time spent in next() against time spent building columns, per batch
+    long mark = System.nanoTime();
+    long batchStart = mark;
+    long sourceNanos = 0;
+    long buildNanos = 0;
+
+    // read data from old DB
+    while (rs.next()) {
+      if (abortReads) {
+        throw readAborted();
+      }
+      long now = System.nanoTime();
+      sourceNanos += now - mark;
+      mark = now;
+      boolean loaded = skip != null && row >= skip[0];
+      Object key = keyColumn > 0 ? watermarkValue(rs, keyColumn) : null;
+      if (bufferCount > 0 && (loaded || bufferCount >= batchRows && (key == null || !key.equals(lastKey)))) {
+        progress.batchRead(bufferCount, now - batchStart, sourceNanos, buildNanos);
+        long bytes = byteSize(cols);
+        if (sizer != null) {
+          batchRows = sizer.rowsFor(bytes, bufferCount);
+        }
+        //send the buffer to mapD, this only blocks while the loader queues are full
+        loader.addColumns(loadKey, cols, bufferCount, recycle(free, cols, bytes, stream, batchFirst, bufferCount));
+        // the queued buffer is still in use, refill one the loader is done with
+        cols = free.poll();
+        if (cols == null) {
+          cols = setupBinaryColumns(md, bufferSize);
+        } else {
+          for (TColumn col : cols) {
+            ((ColumnBuffer) col).reset();
+          }
+        }
+
+        long resultCount = progress.rowsRead.get();
+        if (resultCount % 100000 < bufferCount) {
+          LOGGER.info("Imported " + resultCount + " records");
+        }
+        bufferCount = 0;
+        sourceNanos = 0;
+        buildNanos = 0;
+        mark = System.nanoTime();
+        progress.loaderWait(mark - now);
+        batchStart = mark;
+        batchFirst = row;
+      }
+      if (loaded) {
+        row++;
+        skipped++;
+        if (row >= skip[1]) {
+          skip = journal.nextRange(stream, row);
+        }
+        batchFirst = row;
+        continue;
+      }
+      if (key != null) {
+        lastKey = key;
+        watermark = key;
+      }
+      for (int i = 0; i < columnCount; i++) {
+        ((ColumnBuffer) cols.get(i)).read(rs);
+      }
+      bufferCount++;
+      row++;
+      now = System.nanoTime();
+      buildNanos += now - mark;
+      mark = now;
+    }
+    if (bufferCount > 0) {
+      //send the LAST buffer to mapD
+      progress.batchRead(bufferCount, System.nanoTime() - batchStart, sourceNanos, buildNanos);
+      loader.addColumns(loadKey, cols, bufferCount, recycle(free, cols, byteSize(cols), stream, batchFirst,
+              bufferCount));
+    }
+    if (skipped > 0) {
+      LOGGER.info("Skipped " + skipped + " rows of stream " + stream + " loaded by an earlier run");
+    }
+  }
+
+  /**
+   * Returns cols to free once loaded, telling the batch sizer how the load
+   * went and the journal which rows it covered on the way.
+   */
+  private MapDBulkLoader.BatchListener recycle(final BlockingQueue<List<TColumn>> free,
+          final List<TColumn> cols, final long bytes, final int stream, final long firstRow, final int rows) {
+    return new MapDBulkLoader.BatchListener() {
+      @Override
+      public void batchDone(boolean loaded, long loadNanos) {
+        if (loaded && sizer != null) {
+          sizer.loaded(bytes, loadNanos);
+        }
+        if (loaded && journal != null) {
+          try {
+            journal.committed(stream, firstRow, rows);
+          } catch (IOException ex) {
+            LOGGER.error("Could not record batch in journal - " + ex.toString());
+          }
+        }
+        free.add(cols);
+      }
+    };
+  }
+
+  /**
+   * Opens the --journal file for this import. The job it is recorded
+   * against includes the split ranges, so a source whose bounds moved is
+   * not taken for the same rows.
+   */
+  private BatchJournal openJournal(List<Object[]> ranges) {
+    if (cmd.hasOption("incrementalColumn")) {
+      LOGGER.error("journal can not be combined with incrementalColumn, which resumes from its watermark");
+      exit(1);
+    }
+    StringBuilder job = new StringBuilder();
+    job.append(cmd.getOptionValue("database", "mapd")).append('\n');
+    job.append(cmd.getOptionValue("targetTable")).append('\n');
+    job.append(cmd.getOptionValue("sqlStmt"));
+    if (ranges != null) {
+      job.append('\n').append(cmd.getOptionValue("splitColumn"));
+      for (Object[] range : ranges) {
+        job.append('\n').append(range[0]).append(' ').append(range[1]);
+      }
+    }
+    BatchJournal opened = null;
+    try {
+      opened = new BatchJournal(cmd.getOptionValue("journal"), job.toString());
+    } catch (IOException ex) {
+      LOGGER.error("Could not open journal - " + ex.toString());
+      exit(1);
+    }
+    if (opened.getRowsCommitted() > 0) {
+      if (cmd.hasOption("truncate")) {
+        LOGGER.error("The journal records " + opened.getRowsCommitted() + " rows already loaded, which truncate "
+                + "would drop; remove the journal to start over");
+        exit(1);
+      }
+      LOGGER.info("Resuming, " + opened.getRowsCommitted() + " rows were loaded by an earlier run");
+    }
+    return opened;
+  }
+
+  private static long byteSize(List<TColumn> cols) {
+    long bytes = 0;
+    for (TColumn col : cols) {
+      bytes += ((ColumnBuffer) col).byteSize();
+    }
+    return bytes;
+  }
+
+  /**
+   * Checks the target table against the source query's columns and works
+   * out the watermark to resume from: the larger of the state file's and
+   * the highest value already in the target table, which covers a run that
+   * died before it could save the state file. The target's highest value
+   * is only taken when the state file says the last run finished; after a
+   * failed run it may sit above rows that never loaded, so the import
+   * restarts from the saved watermark and may load some rows again.
+   * Returns the incremental column's position.
+   */
+  private int prepareIncremental(Connection conn) throws SQLException {
+    String column = cmd.getOptionValue("incrementalColumn");
+    Statement stmt = conn.createStatement();
+    ResultSetMetaData md = stmt.executeQuery("SELECT * FROM (" + cmd.getOptionValue("sqlStmt")
+            + ") mapd_inc WHERE 1 = 0").getMetaData();
+    int keyColumn = 0;
+    for (int i = 1; i <= md.getColumnCount(); i++) {
+      if (md.getColumnName(i).equalsIgnoreCase(column)) {
+        keyColumn = i;
+      }
+    }
+    if (keyColumn == 0) {
+      LOGGER.error("incrementalColumn " + column + " is not returned by the source query");
+      exit(1);
+    }
+    watermarkType = md.getColumnType(keyColumn);
+    switch (watermarkType) {
+      case java.sql.Types.TINYINT:
+      case java.sql.Types.SMALLINT:
+      case java.sql.Types.INTEGER:
+      case java.sql.Types.BIGINT:
+      case java.sql.Types.DATE:
+      case java.sql.Types.TIMESTAMP:
+      case java.sql.Types.FLOAT:
+      case java.sql.Types.DECIMAL:
+      case java.sql.Types.DOUBLE:
+      case java.sql.Types.REAL:
+      case java.sql.Types.NUMERIC:
+        break;
+      default:
+        LOGGER.error("incrementalColumn " + column + " must be a number, date or timestamp");
+        exit(1);
+    }
+    checkMapDTable(md);
+    stmt.close();
+
+    // a truncated table starts again from the beginning
+    if (!cmd.hasOption("truncate")) {
+      Properties state = loadState();
+      Object saved = parseWatermark(state.getProperty(stateKey()));
+      Object loaded = targetWatermark(column);
+      if ("false".equals(state.getProperty(stateKey() + ".complete"))) {
+        LOGGER.warn("The last import of " + stateKey() + " did not finish, resuming from the saved watermark "
+                + saved + " rather than " + column + " " + loaded + " in the target");
+        watermark = saved;
+      } else {
+        watermark = saved == null || (loaded != null && compareWatermarks(loaded, saved) > 0) ? loaded : saved;
+      }
+    }
+    LOGGER.info("Importing rows with " + column + " above " + (watermark == null ? "nothing" : watermark));
+    if (Integer.valueOf(cmd.getOptionValue("loaders", "1")) > 1) {
+      LOGGER.info("Incremental imports load in order on a single session");
+    }
+    return keyColumn;
+  }
+
+  private PreparedStatement prepareIncrementalQuery(Connection conn, int bufferSize) throws SQLException {
+    String column = cmd.getOptionValue("incrementalColumn");
+    String sql = "SELECT * FROM (" + cmd.getOptionValue("sqlStmt") + ") mapd_inc";
+    if (watermark != null) {
+      // MapD keeps times in whole seconds, so resume at the next second
+      sql += " WHERE " + column + (isTimeWatermark() ? " >= ?" : " > ?");
+    }
+    PreparedStatement stmt = conn.prepareStatement(sql + " ORDER BY " + column);
+    if (watermark != null) {
+      if (isTimeWatermark()) {
+        stmt.setTimestamp(1, new Timestamp(((Long) watermark + 1) * 1000));
+      } else {
+        stmt.setObject(1, watermark);
+      }
+    }
+    stmt.setFetchSize(bufferSize);
+    return stmt;
+  }
+
+  private boolean isTimeWatermark() {
+    return watermarkType == java.sql.Types.DATE || watermarkType == java.sql.Types.TIMESTAMP;
+  }
+
+  private boolean isRealWatermark() {
+    switch (watermarkType) {
+      case java.sql.Types.FLOAT:
+      case java.sql.Types.DECIMAL:
+      case java.sql.Types.DOUBLE:
+      case java.sql.Types.REAL:
+      case java.sql.Types.NUMERIC:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The incremental column of the current row as MapD stores it: a Long
+   * (seconds for times) or a Double, or null.
+   */
+  private Object watermarkValue(ResultSet rs, int keyColumn) throws SQLException {
+    Object value;
+    if (isTimeWatermark()) {
+      Timestamp ts = rs.getTimestamp(keyColumn);
+      value = ts == null ? null : ts.getTime() / 1000;
+    } else if (isRealWatermark()) {
+      value = rs.getDouble(keyColumn);
+    } else {
+      value = rs.getLong(keyColumn);
+    }
+    return rs.wasNull() ? null : value;
+  }
+
+  private Object parseWatermark(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return isRealWatermark() ? (Object) Double.valueOf(value) : (Object) Long.valueOf(value);
+    } catch (NumberFormatException ex) {
+      LOGGER.error("Ignoring unreadable watermark " + value + " in " + stateFileName());
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compareWatermarks(Object a, Object b) {
+    return ((Comparable<Object>) a).compareTo(b);
+  }
+
+  private Object targetWatermark(String column) {
+    try {
+      TQueryResult result = client.sql_execute(session, "SELECT MAX(" + column + ") FROM "
+              + cmd.getOptionValue("targetTable") + ";", true, null, -1, -1);
+      TColumn max = result.row_set.columns.get(0);
+      if (max.nulls.isEmpty() || max.nulls.get(0)) {
+        return null;
+      }
+      return isRealWatermark() ? (Object) max.data.real_col.get(0) : (Object) max.data.int_col.get(0);
+    } catch (TMapDException ex) {
+      LOGGER.error("Reading the target watermark failed - " + ex.toString());
+      exit(1);
+    } catch (TException ex) {
+      LOGGER.error("Reading the target watermark failed - " + ex.toString());
+      exit(1);
+    }
+    return null;
+  }
+
+  private String stateFileName() {
+    return cmd.getOptionValue("stateFile", "sqlimporter.state");
+  }
+
+  private String stateKey() {
+    return cmd.getOptionValue("database", "mapd") + "." + cmd.getOptionValue("targetTable");
+  }
+
+  private Properties loadState() {
+    Properties state = new Properties();
+    File file = new File(stateFileName());
+    if (file.exists()) {
+      try {
+        FileInputStream in = new FileInputStream(file);
+        try {
+          state.load(in);
+        } finally {
+          in.close();
+        }
+      } catch (IOException ex) {
+        LOGGER.error("Could not read state file " + file + " - " + ex.toString());
+        exit(1);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Records the highest imported value and whether the import finished,
+   * replacing the state file in one rename so a crash leaves either the
+   * old or the new file.
+   */
+  private void saveState(boolean complete) {
+    Properties state = loadState();
+    if (watermark != null) {
+      state.setProperty(stateKey(), watermark.toString());
+    } else {
+      state.remove(stateKey());
+    }
+    state.setProperty(stateKey() + ".complete", Boolean.toString(complete));
+    File file = new File(stateFileName());
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        state.store(out, "SQLImporter watermarks");
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        throw new IOException("rename of " + tmp + " failed");
+      }
+      if (complete) {
+        LOGGER.info("Saved watermark " + watermark + " for " + stateKey());
+      }
+    } catch (IOException ex) {
+      LOGGER.error("Could not write state file " + file + " - " + ex.toString());
+    }
+  }
+
+  /**
+   * Splits the source query into ranges of the split column. Returns the
+   * [low, high] bounds of each range, or null when the column has no values
+   * to split on. The last range includes its high bound.
+   */
+  private List<Object[]> splitRanges(Connection conn, int count) throws SQLException {
+    String column = cmd.getOptionValue("splitColumn");
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT MIN(" + column + "), MAX(" + column + ") FROM ("
+              + cmd.getOptionValue("sqlStmt") + ") mapd_split");
+      rs.next();
+      List<Object[]> ranges = new ArrayList<Object[]>();
+      switch (rs.getMetaData().getColumnType(1)) {
+        case java.sql.Types.TINYINT:
+        case java.sql.Types.SMALLINT:
+        case java.sql.Types.INTEGER:
+        case java.sql.Types.BIGINT: {
+          long min = rs.getLong(1);
+          if (rs.wasNull()) {
+            return null;
+          }
+          BigInteger low = BigInteger.valueOf(min);
+          BigInteger span = BigInteger.valueOf(rs.getLong(2)).subtract(low);
+          for (int i = 0; i < count; i++) {
+            ranges.add(new Object[]{
+              low.add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count))).longValue(),
+              low.add(span.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(count))).longValue()});
+          }
+          break;
+        }
+        case java.sql.Types.DATE:
+        case java.sql.Types.TIMESTAMP: {
+          Timestamp min = rs.getTimestamp(1);
+          if (rs.wasNull()) {
+            return null;
+          }
+          long low = min.getTime();
+          long span = rs.getTimestamp(2).getTime() - low;
+          for (int i = 0; i < count; i++) {
+            ranges.add(new Object[]{new Timestamp(low + span * i / count),
+              new Timestamp(low + span * (i + 1) / count)});
+          }
+          break;
+        }
+        default: {
+          double min = rs.getDouble(1);
+          if (rs.wasNull()) {
+            return null;
+          }
+          double span = rs.getDouble(2) - min;
+          for (int i = 0; i < count; i++) {
+            ranges.add(new Object[]{min + span * i / count, i == count - 1 ? rs.getDouble(2)
+              : min + span * (i + 1) / count});
+          }
+        }
+      }
+      rs.close();
+      LOGGER.info("Reading " + column + " in " + count + " ranges from " + ranges.get(0)[0] + " to "
+              + ranges.get(count - 1)[1]);
+      return ranges;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private PreparedStatement prepareRange(Connection conn, List<Object[]> ranges, int index, int bufferSize) throws
+          SQLException {
+    String column = cmd.getOptionValue("splitColumn");
+    Object[] range = ranges.get(index);
+    // the first range also picks up nulls, the last includes the maximum
+    String predicate = column + " >= ? AND " + column + (index == ranges.size() - 1 ? " <= ?" : " < ?");
+    if (index == 0) {
+      predicate = column + " IS NULL OR (" + predicate + ")";
+    }
+    PreparedStatement stmt = conn.prepareStatement("SELECT * FROM (" + cmd.getOptionValue("sqlStmt")
+            + ") mapd_split WHERE " + predicate);
+    stmt.setObject(1, range[0]);
+    stmt.setObject(2, range[1]);
+    stmt.setFetchSize(bufferSize);
+    return stmt;
+  }
+
+  private Thread startRangeReader(final List<Object[]> ranges, final int index, final int bufferSize,
+          final MapDBulkLoader loader) {
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+          conn = DriverManager.getConnection(cmd.getOptionValue("jdbcConnect"),
+                  cmd.getOptionValue("sourceUser"),
+                  cmd.getOptionValue("sourcePasswd"));
+          conn.setAutoCommit(false);
+          stmt = prepareRange(conn, ranges, index, bufferSize);
+          synchronized (rangeStatements) {
+            rangeStatements.add(stmt);
+          }
+          if (abortReads) {
+            throw readAborted();
+          }
+          ResultSet rs = stmt.executeQuery();
+          readSource(rs, rs.getMetaData(), bufferSize, loader, 0, index);
+          rs.close();
+          stmt.close();
+        } catch (SQLException ex) {
+          if (!abortReads) {
+            LOGGER.error("Reading range " + index + " failed - " + ex.toString());
+          }
+          synchronized (SQLImporter.this) {
+            if (readFailure == null) {
+              readFailure = ex;
+            }
+          }
+          stopReaders();
+        } finally {
+          synchronized (rangeStatements) {
+            rangeStatements.remove(stmt);
+          }
+          try {
+            if (conn != null) {
+              conn.close();
+            }
+          } catch (SQLException se) {
+            LOGGER.error("SQlException in close - " + se.toString());
+          }
+        }
+      }
+    }, "sqlimporter-range-" + index);
+    reader.start();
+    return reader;
+  }
+
+  private synchronized SQLException readAborted() {
+    return new SQLException("Source read stopped after an error reading another range", readFailure);
+  }
+
+  /**
+   * Tells every range reader to stop, cancelling the source queries they
+   * are still waiting on.
+   */
+  private void stopReaders() {
+    abortReads = true;
+    List<Statement> running;
+    synchronized (rangeStatements) {
+      running = new ArrayList<Statement>(rangeStatements);
+    }
+    for (Statement stmt : running) {
+      try {
+        stmt.cancel();
+      } catch (SQLException ex) {
+        LOGGER.debug("Cancelling a range read failed - " + ex.toString());
+      }
+    }
+  }
+
+  /**
+   * Waits for every reader to finish; an interrupt stops them instead and
+   * is passed on once they have.
+   */
+  private void joinReaders(List<Thread> readers) {
+    boolean interrupted = false;
+    for (Thread reader : readers) {
+      while (reader.isAlive()) {
+        try {
+          reader.join();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+          stopReaders();
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void run_init(Connection conn) {
     //attempt to open file
     String line = "";
@@ -329,7 +1076,9 @@ public class SQLImporter {
   }
 
   private void checkMapDTable(ResultSetMetaData md) throws SQLException {
-    createMapDConnection();
+    if (client == null) {
+      createMapDConnection();
+    }
     String tName = cmd.getOptionValue("targetTable");
 
     if (tableExists(tName)) {
@@ -402,9 +1151,24 @@ public class SQLImporter {
       transport = new TSocket(cmd.getOptionValue("server", "localhost"),
               Integer.valueOf(cmd.getOptionValue("port", "9091")));
 
-      transport.open();
-
-      TProtocol protocol = new TBinaryProtocol(transport);
+      TProtocol protocol;
+      String mode = cmd.getOptionValue("transport", "binary");
+      if (mode.equalsIgnoreCase("zlib")) {
+        transport = new TZlibTransport(transport);
+        transport.open();
+        protocol = new TCompactProtocol(transport);
+      } else if (mode.equalsIgnoreCase("framed")) {
+        transport = new TFramedTransport(transport);
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+      } else if (mode.equalsIgnoreCase("binary")) {
+        transport.open();
+        protocol = new TBinaryProtocol(transport);
+      } else {
+        LOGGER.error("Unknown transport " + mode + ", expected binary, framed or zlib");
+        exit(1);
+        return;
+      }
 
       client = new MapD.Client(protocol);
 
@@ -426,6 +1190,31 @@ public class SQLImporter {
     }
   }
 
+  private MapDBulkLoader createLoader() throws SQLException {
+    String url = "jdbc:mapd:" + cmd.getOptionValue("server", "localhost") + ":"
+            + cmd.getOptionValue("port", "9091") + ":" + cmd.getOptionValue("database", "mapd");
+    Properties info = new Properties();
+    info.setProperty("user", cmd.getOptionValue("user", "mapd"));
+    info.setProperty("password", cmd.getOptionValue("passwd", "HyperInteractive"));
+    info.setProperty("transport", cmd.getOptionValue("transport", "binary"));
+    // each loader session only ever runs one call at a time
+    info.setProperty("maxChannels", "1");
+    info.setProperty("loadRetries", cmd.getOptionValue("retries", "3"));
+    info.setProperty("loadRetryBackoffMs", cmd.getOptionValue("retryBackoffMs", "500"));
+    int loaders = Integer.valueOf(cmd.getOptionValue("loaders", "1"));
+    int queueDepth = Integer.valueOf(cmd.getOptionValue("queueDepth", "4"));
+    LOGGER.info("Loading over " + loaders + " sessions with a queue depth of " + queueDepth);
+    return new MapDBulkLoader(url, info, cmd.getOptionValue("targetTable"), loaders, queueDepth);
+  }
+
+  private void closeLoader(MapDBulkLoader loader) {
+    try {
+      loader.close();
+    } catch (SQLException ex) {
+      LOGGER.error("Load failed - " + ex.toString());
+    }
+  }
+
   private List<TColumnType> getColumnInfo(String tName) {
     LOGGER.debug("Getting columns for  " + tName);
     List<TColumnType> row_descriptor = null;
@@ -521,173 +1310,11 @@ public class SQLImporter {
     }
   }
 
-  private TColumn setupBinaryColumn(int i, ResultSetMetaData md, int bufferSize) throws SQLException {
-    TColumn col = new TColumn();
-
-    col.nulls = new ArrayList<Boolean>(bufferSize);
-
-    col.data = new TColumnData();
-
-    switch (md.getColumnType(i)) {
-      case java.sql.Types.TINYINT:
-      case java.sql.Types.SMALLINT:
-      case java.sql.Types.INTEGER:
-      case java.sql.Types.BIGINT:
-      case java.sql.Types.TIME:
-      case java.sql.Types.TIMESTAMP:
-      case java.sql.Types.BIT:  // deal with postgress treating boolean as bit... this will bite me
-      case java.sql.Types.BOOLEAN:
-      case java.sql.Types.DATE:
-        col.data.int_col = new ArrayList<Long>(bufferSize);
-        break;
-
-      case java.sql.Types.FLOAT:
-      case java.sql.Types.DECIMAL:
-      case java.sql.Types.DOUBLE:
-      case java.sql.Types.REAL:
-      case java.sql.Types.NUMERIC:
-        col.data.real_col = new ArrayList<Double>(bufferSize);
-        break;
-
-      case java.sql.Types.NVARCHAR:
-      case java.sql.Types.VARCHAR:
-      case java.sql.Types.NCHAR:
-      case java.sql.Types.CHAR:
-      case java.sql.Types.LONGVARCHAR:
-      case java.sql.Types.LONGNVARCHAR:
-        col.data.str_col = new ArrayList<String>(bufferSize);
-        break;
-
-      default:
-        throw new AssertionError("Column type " + md.getColumnType(i) + " not Supported");
-    }
-    return col;
-  }
-
-  private void setColValue(ResultSet rs, TColumn col, int columnType, int colNum) throws SQLException {
-
-    switch (columnType) {
-      case java.sql.Types.TINYINT:
-      case java.sql.Types.SMALLINT:
-      case java.sql.Types.INTEGER:
-      case java.sql.Types.BIGINT:
-      case java.sql.Types.BIT:  // deal with postgress treating boolean as bit... this will bite me
-      case java.sql.Types.BOOLEAN:
-        col.data.int_col.add(rs.getLong(colNum));
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-        } else {
-          col.nulls.add(Boolean.FALSE);
-        }
-        break;
-
-      case java.sql.Types.TIME:
-        Time t = rs.getTime(colNum);
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-          col.data.int_col.add(0L);
-
-        } else {
-          col.data.int_col.add(t.getTime() / 1000);
-          col.nulls.add(Boolean.FALSE);
-        }
-
-        break;
-      case java.sql.Types.TIMESTAMP:
-        Timestamp ts = rs.getTimestamp(colNum);
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-          col.data.int_col.add(0L);
-
-        } else {
-          col.data.int_col.add(ts.getTime() / 1000);
-          col.nulls.add(Boolean.FALSE);
-        }
-
-        break;
-      case java.sql.Types.DATE:
-        Date d = rs.getDate(colNum);
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-          col.data.int_col.add(0L);
-
-        } else {
-          col.data.int_col.add(d.getTime() / 1000);
-          col.nulls.add(Boolean.FALSE);
-        }
-        break;
-      case java.sql.Types.FLOAT:
-      case java.sql.Types.DECIMAL:
-      case java.sql.Types.DOUBLE:
-      case java.sql.Types.REAL:
-      case java.sql.Types.NUMERIC:
-        col.data.real_col.add(rs.getDouble(colNum));
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-
-        } else {
-          col.nulls.add(Boolean.FALSE);
-        }
-        break;
-
-      case java.sql.Types.NVARCHAR:
-      case java.sql.Types.VARCHAR:
-      case java.sql.Types.NCHAR:
-      case java.sql.Types.CHAR:
-      case java.sql.Types.LONGVARCHAR:
-      case java.sql.Types.LONGNVARCHAR:
-        String strVal = rs.getString(colNum);
-        if (rs.wasNull()) {
-          col.nulls.add(Boolean.TRUE);
-          col.data.str_col.add("");
-
-        } else {
-          col.data.str_col.add(strVal);
-          col.nulls.add(Boolean.FALSE);
-        }
-        break;
-
-      default:
-        throw new AssertionError("Column type " + columnType + " not Supported");
-    }
-  }
-
-  private void resetBinaryColumn(int i, ResultSetMetaData md, int bufferSize, TColumn col) throws SQLException {
-
-    col.nulls.clear();
-
-    switch (md.getColumnType(i)) {
-      case java.sql.Types.TINYINT:
-      case java.sql.Types.SMALLINT:
-      case java.sql.Types.INTEGER:
-      case java.sql.Types.BIGINT:
-      case java.sql.Types.TIME:
-      case java.sql.Types.TIMESTAMP:
-      case java.sql.Types.BIT:  // deal with postgress treating boolean as bit... this will bite me
-      case java.sql.Types.BOOLEAN:
-      case java.sql.Types.DATE:
-        col.data.int_col.clear();
-        break;
-
-      case java.sql.Types.FLOAT:
-      case java.sql.Types.DECIMAL:
-      case java.sql.Types.DOUBLE:
-      case java.sql.Types.REAL:
-      case java.sql.Types.NUMERIC:
-        col.data.real_col.clear();
-        break;
-
-      case java.sql.Types.NVARCHAR:
-      case java.sql.Types.VARCHAR:
-      case java.sql.Types.NCHAR:
-      case java.sql.Types.CHAR:
-      case java.sql.Types.LONGVARCHAR:
-      case java.sql.Types.LONGNVARCHAR:
-        col.data.str_col.clear();
-        break;
-
-      default:
-        throw new AssertionError("Column type " + md.getColumnType(i) + " not Supported");
+  private List<TColumn> setupBinaryColumns(ResultSetMetaData md, int bufferSize) throws SQLException {
+    List<TColumn> cols = new ArrayList<TColumn>(md.getColumnCount());
+    for (int i = 1; i <= md.getColumnCount(); i++) {
+      cols.add(ColumnBuffer.forColumn(md, i, bufferSize));
     }
+    return cols;
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatchJournalTest {
+
+  private File file;
+
+  @Before
+  public void createFile() throws IOException {
+    file = File.createTempFile("journal", ".txt");
+    file.delete();
+  }
+
+  @After
+  public void removeFile() {
+    file.delete();
+  }
+
+  private void append(String text) throws IOException {
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test
+  public void newJournalIsEmpty() throws IOException {
+    BatchJournal journal = new BatchJournal(file.getPath(), "job");
+    assertEquals(0, journal.getRowsCommitted());
+    assertNull(journal.nextRange(0, 0));
+    journal.close();
+    assertTrue(file.length() > 0);
+  }
+
+  @Test
+  public void reopenedJournalMergesCommittedBatches() throws IOException {
+    BatchJournal journal = new BatchJournal(file.getPath(), "job");
+    journal.committed(0, 0, 100);
+    journal.committed(0, 200, 100);
+    journal.committed(0, 100, 100);
+    journal.committed(1, 50, 10);
+    // nothing done in this run is skipped
+    assertNull(journal.nextRange(0, 0));
+    journal.close();
+
+    journal = new BatchJournal(file.getPath(), "job");
+    assertEquals(310, journal.getRowsCommitted());
+    assertArrayEquals(new long[]{0, 300}, journal.nextRange(0, 0));
+    assertArrayEquals(new long[]{0, 300}, journal.nextRange(0, 299));
+    assertNull(journal.nextRange(0, 300));
+    assertArrayEquals(new long[]{50, 60}, journal.nextRange(1, 0));
+    assertArrayEquals(new long[]{50, 60}, journal.nextRange(1, 55));
+    assertNull(journal.nextRange(1, 60));
+    assertNull(journal.nextRange(2, 0));
+    journal.close();
+  }
+
+  @Test
+  public void tornLinesAreIgnored() throws IOException {
+    BatchJournal journal = new BatchJournal(file.getPath(), "job");
+    journal.committed(0, 0, 10);
+    journal.close();
+    append("0 10 1");
+
+    journal = new BatchJournal(file.getPath(), "job");
+    assertEquals(11, journal.getRowsCommitted());
+    journal.committed(0, 20, 5);
+    journal.close();
+    append("0 3");
+
+    journal = new BatchJournal(file.getPath(), "job");
+    assertEquals(16, journal.getRowsCommitted());
+    assertArrayEquals(new long[]{0, 11}, journal.nextRange(0, 0));
+    assertArrayEquals(new long[]{20, 25}, journal.nextRange(0, 11));
+    journal.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void refusesJournalOfAnotherJob() throws IOException {
+    new BatchJournal(file.getPath(), "job").close();
+    new BatchJournal(file.getPath(), "other job");
+  }
+
+  @Test
+  public void deleteRemovesTheFile() throws IOException {
+    BatchJournal journal = new BatchJournal(file.getPath(), "job");
+    journal.committed(0, 0, 1);
+    journal.delete();
+    assertFalse(file.exists());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mapd.utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DelimitedFileLoaderTest {
+
+  private static long parseTimestamp(String text) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(("x" + text + "y").getBytes("UTF-8"));
+    return DelimitedFileLoader.parseTimestamp(buf, 1, buf.limit() - 1);
+  }
+
+  private static long epochDays(int year, int month, int day) {
+    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    cal.clear();
+    cal.set(year, month - 1, day);
+    return Math.round(cal.getTimeInMillis() / 86400000.0);
+  }
+
+  @Test
+  public void daysFromCivil() {
+    assertEquals(0, DelimitedFileLoader.daysFromCivil(1970, 1, 1));
+    assertEquals(-1, DelimitedFileLoader.daysFromCivil(1969, 12, 31));
+    assertEquals(59, DelimitedFileLoader.daysFromCivil(1970, 3, 1));
+    assertEquals(11016, DelimitedFileLoader.daysFromCivil(2000, 2, 29));
+    assertEquals(11017, DelimitedFileLoader.daysFromCivil(2000, 3, 1));
+    // against the calendar on every first of the month, either side of the epoch
+    for (int year = 1800; year <= 2200; year++) {
+      for (int month = 1; month <= 12; month++) {
+        assertEquals(year + "-" + month, epochDays(year, month, 1), DelimitedFileLoader.daysFromCivil(year, month, 1));
+      }
+    }
+  }
+
+  @Test
+  public void parsesTimestamps() throws IOException {
+    assertEquals(0, parseTimestamp("1970-01-01"));
+    assertEquals(0, parseTimestamp("1970-01-01 00:00"));
+    assertEquals(1199188800L, parseTimestamp("2008-01-01 12:00:00"));
+    assertEquals(1199188800L, parseTimestamp("2008-01-01T12:00:00Z"));
+    assertEquals(1199188800L, parseTimestamp("  2008-01-01 12:00:00.750  "));
+    assertEquals(-86400L + 3723, parseTimestamp("1969-12-31 01:02:03"));
+    assertEquals(1234567890L, parseTimestamp("1234567890"));
+    assertEquals(-5L, parseTimestamp("-5"));
+  }
+
+  @Test
+  public void rejectsMalformedTimestamps() throws IOException {
+    String[] bad = {"2008-13-01", "2008-00-10", "2008-01-32", "2008/01/01", "2008-01-01X12:00", "2008-01-01 1:00",
+      "2008-01-01 24:00", "2008-01-01 12:60", "2008-01-01 12:00:0", "2008-01-01 12:00x00", "2008-0a-01"};
+    for (String text : bad) {
+      try {
+        parseTimestamp(text);
+        fail(text);
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void splitsAtLineEnds() throws IOException {
+    File file = File.createTempFile("chunks", ".csv");
+    try {
+      StringBuilder text = new StringBuilder("a,b\n");
+      for (int i = 0; i < 1000; i++) {
+        text.append(i).append(",row ").append(i).append('\n');
+      }
+      text.append("last,no newline");
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+        out.write(text.toString().getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+      byte[] bytes = text.toString().getBytes("UTF-8");
+
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        for (int threads = 1; threads <= 16; threads++) {
+          checkChunks(DelimitedFileLoader.splitChunks(channel, threads, true), bytes, 4, threads);
+          checkChunks(DelimitedFileLoader.splitChunks(channel, threads, false), bytes, 0, threads);
+        }
+      } finally {
+        raf.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void checkChunks(List<long[]> chunks, byte[] bytes, long start, int threads) {
+    assertTrue(chunks.size() >= 1 && chunks.size() <= threads);
+    long next = start;
+    for (long[] chunk : chunks) {
+      assertEquals(next, chunk[0]);
+      assertTrue(chunk[1] > chunk[0]);
+      if (chunk[1] < bytes.length) {
+        assertEquals('\n', bytes[(int) chunk[1] - 1]);
+      }
+      next = chunk[1];
+    }
+    assertEquals(bytes.length, next);
+  }
+
+  @Test
+  public void splitsEmptyFile() throws IOException {
+    File file = File.createTempFile("chunks", ".csv");
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        assertTrue(DelimitedFileLoader.splitChunks(raf.getChannel(), 4, true).isEmpty());
+      } finally {
+        raf.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}